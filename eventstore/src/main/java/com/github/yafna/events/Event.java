@@ -19,6 +19,14 @@ public interface Event {
      */
     Long getSeq();
 
+    /**
+     * Same as {@link #getSeq()}, unboxed, for events of aggregates only.
+     * Implementations holding seq as a primitive override it to spare boxing on hot paths, such as replays.
+     */
+    default long seq() {
+        return getSeq();
+    }
+
     /**
      * Unique identifier of the event - normally a uuid.
      */
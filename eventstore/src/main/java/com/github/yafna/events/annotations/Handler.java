@@ -8,6 +8,8 @@ import java.lang.annotation.RetentionPolicy;
  * Such methods must match one of the following contracts:
  * a) One argument of type assignment compatible with event payload
  * b) Two arguments, first is event metadata, second is
+ * <p>
+ * Also marks {@link com.github.yafna.events.handlers.event.EventHandler} classes, naming the event type they handle.
  */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Handler {
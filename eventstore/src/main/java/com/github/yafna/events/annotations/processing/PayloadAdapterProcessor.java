@@ -0,0 +1,549 @@
+package com.github.yafna.events.annotations.processing;
+
+import com.github.yafna.events.annotations.EvType;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates a reflection-free Gson adapter for every {@link EvType} class, producing the same JSON as Gson's
+ * reflective adapter would, and registers it as a {@code com.github.yafna.events.utils.PayloadAdapterFactory}
+ * service, see {@code com.github.yafna.events.utils.Payloads}.
+ * <p>
+ * Fields are read and written directly where the generated adapter, placed in the package of the payload class,
+ * can access them; private and final ones go through method handles looked up once per adapter class.
+ * Strings, booleans, ints, longs and doubles are read and written by the adapter itself, values of other types
+ * are passed to the Gson adapters of their declared types.
+ * <p>
+ * Classes Gson would treat in a way the adapter does not reproduce are left to Gson reflection, with a note:
+ * abstract, inner, private or generic classes, classes without a no-arg constructor, and classes using
+ * {@code @JsonAdapter}, {@code @Expose}, {@code @Since} or {@code @Until}.
+ */
+@SupportedAnnotationTypes("com.github.yafna.events.annotations.EvType")
+public class PayloadAdapterProcessor extends AbstractProcessor {
+    static final String SUFFIX = "_PayloadAdapter";
+    private static final String FACTORY = "com.github.yafna.events.utils.PayloadAdapterFactory";
+    private static final String PAYLOADS = "com.github.yafna.events.utils.Payloads";
+    private static final String SERVICES = "META-INF/services/" + FACTORY;
+    private static final String SERIALIZED_NAME = "com.google.gson.annotations.SerializedName";
+    private static final Set<String> UNSUPPORTED = new HashSet<>(Arrays.asList(
+            "com.google.gson.annotations.JsonAdapter", "com.google.gson.annotations.Expose",
+            "com.google.gson.annotations.Since", "com.google.gson.annotations.Until"
+    ));
+    /**
+     * Lombok annotations generating a constructor, which takes the place of the default one
+     */
+    private static final Set<String> CONSTRUCTORS = new HashSet<>(Arrays.asList(
+            "lombok.AllArgsConstructor", "lombok.RequiredArgsConstructor", "lombok.Value", "lombok.Data", "lombok.Builder"
+    ));
+    private static final String NO_ARGS_CONSTRUCTOR = "lombok.NoArgsConstructor";
+    private static final Map<String, String> NATIVE = new LinkedHashMap<>();
+
+    static {
+        NATIVE.put("java.lang.String", "String");
+        NATIVE.put("boolean", "boolean");
+        NATIVE.put("java.lang.Boolean", "boolean");
+        NATIVE.put("int", "int");
+        NATIVE.put("java.lang.Integer", "int");
+        NATIVE.put("long", "long");
+        NATIVE.put("java.lang.Long", "long");
+        NATIVE.put("double", "double");
+        NATIVE.put("java.lang.Double", "double");
+    }
+
+    private final Set<String> generated = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (Element element : round.getElementsAnnotatedWith(EvType.class)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                TypeElement type = (TypeElement) element;
+                Optional<String> unsupported = unsupported(type);
+                if (unsupported.isPresent()) {
+                    note(type, "left to Gson reflection, " + unsupported.get());
+                    continue;
+                }
+                Optional<List<Property>> properties = properties(type);
+                if (properties.isPresent()) {
+                    generate(type, properties.get());
+                }
+            }
+        }
+        if (round.processingOver() && !generated.isEmpty()) {
+            writeServices();
+        }
+        return false;
+    }
+
+    private Optional<String> unsupported(TypeElement type) {
+        if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return Optional.of("abstract class");
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            return Optional.of("generic class");
+        }
+        for (Element e = type; e.getKind() == ElementKind.CLASS; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                return Optional.of("private class");
+            }
+            TypeElement t = (TypeElement) e;
+            if (t.getNestingKind() != NestingKind.TOP_LEVEL && !t.getModifiers().contains(Modifier.STATIC)) {
+                return Optional.of("inner class");
+            }
+        }
+        if (annotated(type, UNSUPPORTED)) {
+            return Optional.of("Gson annotations");
+        }
+        if (!annotated(type, Collections.singleton(NO_ARGS_CONSTRUCTOR))) {
+            boolean noArgs = ElementFilter.constructorsIn(type.getEnclosedElements()).stream().anyMatch(
+                    c -> c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE)
+            );
+            if (!noArgs || annotated(type, CONSTRUCTORS)) {
+                return Optional.of("no no-arg constructor");
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Collects serialized fields in the order Gson writes them, those of the class before the ones of its superclasses.
+     */
+    private Optional<List<Property>> properties(TypeElement type) {
+        List<Property> properties = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (TypeElement t = type; t != null && !t.getQualifiedName().contentEquals("java.lang.Object"); t = superclass(t)) {
+            for (VariableElement field : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+                    continue;
+                }
+                if (annotated(field, UNSUPPORTED)) {
+                    note(type, "left to Gson reflection, field [" + field.getSimpleName() + "] has Gson annotations");
+                    return Optional.empty();
+                }
+                if (hasTypeVariable(field.asType())) {
+                    note(type, "left to Gson reflection, field [" + field.getSimpleName() + "] has generic type");
+                    return Optional.empty();
+                }
+                boolean accessible = modifiers.contains(Modifier.PUBLIC) || packageOf(t).equals(packageOf(type));
+                if (!accessible(t, packageOf(type))) {
+                    note(type, "left to Gson reflection, superclass [" + t.getQualifiedName() + "] is not accessible");
+                    return Optional.empty();
+                }
+                Property property = new Property(
+                        t, t != type, field,
+                        modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.FINAL) || !accessible
+                );
+                for (String name : property.names) {
+                    if (!names.add(name)) {
+                        note(type, "left to Gson reflection, name [" + name + "] is declared more than once");
+                        return Optional.empty();
+                    }
+                }
+                properties.add(property);
+            }
+        }
+        return Optional.of(properties);
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        return superclass.getKind() == TypeKind.DECLARED ? (TypeElement) ((DeclaredType) superclass).asElement() : null;
+    }
+
+    private static boolean hasTypeVariable(TypeMirror type) {
+        switch (type.getKind()) {
+            case TYPEVAR:
+            case WILDCARD:
+                return true;
+            case ARRAY:
+                return hasTypeVariable(((javax.lang.model.type.ArrayType) type).getComponentType());
+            case DECLARED:
+                return ((DeclaredType) type).getTypeArguments().stream().anyMatch(
+                        a -> a.getKind() == TypeKind.TYPEVAR || a.getKind() != TypeKind.WILDCARD && hasTypeVariable(a)
+                );
+            default:
+                return false;
+        }
+    }
+
+    private boolean accessible(TypeElement type, String fromPackage) {
+        for (Element e = type; e.getKind() == ElementKind.CLASS; e = e.getEnclosingElement()) {
+            Set<Modifier> modifiers = e.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE)
+                    || !modifiers.contains(Modifier.PUBLIC) && !packageOf((TypeElement) e).equals(fromPackage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<Property> properties) {
+        String pkg = packageOf(type);
+        String simpleName = adapterName(type);
+        String name = pkg.isEmpty() ? simpleName : pkg + "." + simpleName;
+        String payload = type.getQualifiedName().toString();
+        try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(name, type).openWriter())) {
+            if (!pkg.isEmpty()) {
+                out.println("package " + pkg + ";");
+                out.println();
+            }
+            generatedAnnotation().ifPresent(a -> out.println("@" + a + "(\"" + getClass().getName() + "\")"));
+            out.println("public final class " + simpleName + " implements " + FACTORY + " {");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.handles) {
+                    String declaring = p.declaring.getQualifiedName() + ".class";
+                    out.println("    private static final java.lang.invoke.MethodHandle GET_" + i + " = " + PAYLOADS
+                            + ".getter(" + declaring + ", \"" + p.field.getSimpleName() + "\");");
+                    out.println("    private static final java.lang.invoke.MethodHandle SET_" + i + " = " + PAYLOADS
+                            + ".setter(" + declaring + ", \"" + p.field.getSimpleName() + "\");");
+                }
+            }
+            out.println();
+            out.println("    @Override");
+            out.println("    @SuppressWarnings(\"unchecked\")");
+            out.println("    public <T> com.google.gson.TypeAdapter<T> create(com.google.gson.Gson gson, "
+                    + "com.google.gson.reflect.TypeToken<T> type) {");
+            out.println("        return type.getRawType() == " + payload + ".class ? (com.google.gson.TypeAdapter<T>) "
+                    + "new Adapter(gson) : null;");
+            out.println("    }");
+            out.println();
+            out.println("    private static final class Adapter extends com.google.gson.TypeAdapter<" + payload + "> {");
+            out.println("        private final com.google.gson.Gson gson;");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.kind == null) {
+                    out.println("        private final com.google.gson.TypeAdapter<" + p.boxed() + "> adapter" + i + ";");
+                }
+            }
+            out.println();
+            out.println("        Adapter(com.google.gson.Gson gson) {");
+            out.println("            this.gson = gson;");
+            for (int i = 0; i < properties.size(); i++) {
+                Property p = properties.get(i);
+                if (p.kind == null) {
+                    out.println("            this.adapter" + i + " = gson.getAdapter(new com.google.gson.reflect.TypeToken<"
+                            + p.boxed() + ">() {\n            });");
+                }
+            }
+            out.println("        }");
+            out.println();
+            writeMethod(out, payload, properties);
+            out.println();
+            readMethod(out, payload, properties);
+            out.println("    }");
+            out.println("}");
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR, "Unable to generate payload adapter: " + e.getMessage(), type
+            );
+            return;
+        }
+        generated.add(name);
+    }
+
+    /**
+     * {@code javax.annotation.Generated} is gone from JDK 11 on, where {@code javax.annotation.processing.Generated}
+     * replaces it, and neither may be available.
+     */
+    private Optional<String> generatedAnnotation() {
+        return Stream.of("javax.annotation.processing.Generated", "javax.annotation.Generated").filter(
+                name -> processingEnv.getElementUtils().getTypeElement(name) != null
+        ).findFirst();
+    }
+
+    private void writeMethod(PrintWriter out, String payload, List<Property> properties) {
+        out.println("        @Override");
+        out.println("        @SuppressWarnings(\"unchecked\")");
+        out.println("        public void write(com.google.gson.stream.JsonWriter out, " + payload
+                + " value) throws java.io.IOException {");
+        out.println("            if (value == null) {");
+        out.println("                out.nullValue();");
+        out.println("                return;");
+        out.println("            }");
+        out.println("            try {");
+        out.println("                out.beginObject();");
+        for (int i = 0; i < properties.size(); i++) {
+            Property p = properties.get(i);
+            out.println("                {");
+            out.println("                    " + p.type() + " v = " + p.get(i) + ";");
+            out.println("                    out.name(\"" + escape(p.names.get(0)) + "\");");
+            if ("String".equals(p.kind)) {
+                out.println("                    out.value(v);");
+            } else if (p.kind != null && p.primitive()) {
+                out.println("                    out.value(v);");
+            } else {
+                String write = p.kind == null ? PAYLOADS + ".write(gson, adapter" + i + ", out, v)"
+                        : "out.value(v." + p.kind + "Value())";
+                if (p.primitive()) {
+                    out.println("                    " + write + ";");
+                } else {
+                    out.println("                    if (v == null) {");
+                    out.println("                        out.nullValue();");
+                    out.println("                    } else {");
+                    out.println("                        " + write + ";");
+                    out.println("                    }");
+                }
+            }
+            out.println("                }");
+        }
+        out.println("                out.endObject();");
+        rethrow(out);
+        out.println("        }");
+    }
+
+    private void readMethod(PrintWriter out, String payload, List<Property> properties) {
+        out.println("        @Override");
+        out.println("        @SuppressWarnings(\"unchecked\")");
+        out.println("        public " + payload + " read(com.google.gson.stream.JsonReader in) throws java.io.IOException {");
+        out.println("            if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+        out.println("                in.nextNull();");
+        out.println("                return null;");
+        out.println("            }");
+        out.println("            " + payload + " value = new " + payload + "();");
+        out.println("            try {");
+        out.println("                in.beginObject();");
+        out.println("                while (in.hasNext()) {");
+        out.println("                    switch (in.nextName()) {");
+        for (int i = 0; i < properties.size(); i++) {
+            Property p = properties.get(i);
+            for (String name : p.names) {
+                out.println("                        case \"" + escape(name) + "\":");
+            }
+            out.println("                        {");
+            if (p.kind == null) {
+                out.println("                            " + p.boxed() + " v = adapter" + i + ".read(in);");
+                out.println(p.primitive() ? "                            if (v != null) {" : "                            {");
+            } else {
+                out.println("                            if (in.peek() == com.google.gson.stream.JsonToken.NULL) {");
+                out.println("                                in.nextNull();");
+                if (!p.primitive()) {
+                    out.println("                                " + p.set(i, "null") + ";");
+                }
+                out.println("                            } else {");
+                out.println("                                " + p.type() + " v = " + readValue(p.kind) + ";");
+            }
+            out.println("                                " + p.set(i, "v") + ";");
+            out.println("                            }");
+            out.println("                            break;");
+            out.println("                        }");
+        }
+        out.println("                        default:");
+        out.println("                            in.skipValue();");
+        out.println("                    }");
+        out.println("                }");
+        out.println("                in.endObject();");
+        out.println("            } catch (java.lang.IllegalStateException | java.lang.NumberFormatException e) {");
+        out.println("                throw new com.google.gson.JsonSyntaxException(e);");
+        rethrow(out);
+        out.println("            return value;");
+        out.println("        }");
+    }
+
+    private static String readValue(String kind) {
+        switch (kind) {
+            case "String":
+                return "in.peek() == com.google.gson.stream.JsonToken.BOOLEAN ? java.lang.Boolean.toString(in.nextBoolean())"
+                        + " : in.nextString()";
+            case "boolean":
+                return "in.peek() == com.google.gson.stream.JsonToken.STRING ? java.lang.Boolean.parseBoolean(in.nextString())"
+                        + " : in.nextBoolean()";
+            case "int":
+                return "in.nextInt()";
+            case "long":
+                return "in.nextLong()";
+            default:
+                return "in.nextDouble()";
+        }
+    }
+
+    /**
+     * Method handles declare {@link Throwable}, anything but I/O and unchecked exceptions is unexpected.
+     */
+    private static void rethrow(PrintWriter out) {
+        out.println("            } catch (java.io.IOException | java.lang.RuntimeException | java.lang.Error e) {");
+        out.println("                throw e;");
+        out.println("            } catch (java.lang.Throwable e) {");
+        out.println("                throw new java.lang.IllegalStateException(e);");
+        out.println("            }");
+    }
+
+    private void writeServices() {
+        try (Writer out = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES).openWriter()) {
+            for (String name : generated) {
+                out.write(name + "\n");
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(
+                    Diagnostic.Kind.ERROR, "Unable to register payload adapters: " + e.getMessage()
+            );
+        }
+    }
+
+    static String adapterName(TypeElement type) {
+        List<String> names = new ArrayList<>();
+        for (Element e = type; e.getKind() == ElementKind.CLASS; e = e.getEnclosingElement()) {
+            names.add(0, e.getSimpleName().toString());
+        }
+        return String.join("_", names) + SUFFIX;
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private static boolean annotated(Element element, Set<String> annotations) {
+        return element.getAnnotationMirrors().stream().anyMatch(
+                a -> annotations.contains(((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().toString())
+        );
+    }
+
+    private void note(TypeElement type, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, type.getQualifiedName() + " " + message, type);
+    }
+
+    private static String escape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Serialized field of a payload class.
+     */
+    private class Property {
+        private final TypeElement declaring;
+        /**
+         * Whether the field is declared by a superclass, which method handles take as their first parameter
+         */
+        private final boolean inherited;
+        private final VariableElement field;
+        /**
+         * Whether the field is accessed through method handles
+         */
+        private final boolean handles;
+        /**
+         * Type read and written by the adapter itself, null for types left to Gson adapters
+         */
+        private final String kind;
+        /**
+         * Serialized name followed by alternate ones
+         */
+        private final List<String> names;
+
+        Property(TypeElement declaring, boolean inherited, VariableElement field, boolean handles) {
+            this.declaring = declaring;
+            this.inherited = inherited;
+            this.field = field;
+            this.handles = handles;
+            this.kind = NATIVE.get(field.asType().toString());
+            this.names = serializedNames(field);
+        }
+
+        private List<String> serializedNames(VariableElement field) {
+            for (AnnotationMirror annotation : field.getAnnotationMirrors()) {
+                TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+                if (annotationType.getQualifiedName().contentEquals(SERIALIZED_NAME)) {
+                    List<String> result = new ArrayList<>();
+                    for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e
+                            : annotation.getElementValues().entrySet()) {
+                        String key = e.getKey().getSimpleName().toString();
+                        if ("value".equals(key)) {
+                            result.add(0, (String) e.getValue().getValue());
+                        } else if ("alternate".equals(key)) {
+                            @SuppressWarnings("unchecked")
+                            List<? extends AnnotationValue> alternates = (List<? extends AnnotationValue>) e.getValue().getValue();
+                            result.addAll(alternates.stream().map(a -> (String) a.getValue()).collect(Collectors.toList()));
+                        }
+                    }
+                    return result;
+                }
+            }
+            return Collections.singletonList(field.getSimpleName().toString());
+        }
+
+        boolean primitive() {
+            return field.asType().getKind().isPrimitive();
+        }
+
+        String type() {
+            return field.asType().toString();
+        }
+
+        String boxed() {
+            TypeMirror type = field.asType();
+            return primitive() ? processingEnv.getTypeUtils().boxedClass((javax.lang.model.type.PrimitiveType) type)
+                    .getQualifiedName().toString() : type.toString();
+        }
+
+        private String erasure() {
+            return processingEnv.getTypeUtils().erasure(field.asType()).toString();
+        }
+
+        /**
+         * Reads the field, {@code invokeExact} takes its signature from the static types of the call,
+         * so the result is cast to the field type and the payload to the class declaring the field.
+         */
+        String get(int i) {
+            if (!handles) {
+                return "value." + field.getSimpleName();
+            }
+            return "(" + erasure() + ") GET_" + i + ".invokeExact(" + target() + ")";
+        }
+
+        /**
+         * Writes a local variable of the field type, or null or a boxed value read by a Gson adapter,
+         * which have to be cast to the field type.
+         */
+        String set(int i, String v) {
+            if (!handles) {
+                return "value." + field.getSimpleName() + " = " + v;
+            }
+            boolean boxed = kind == null && primitive();
+            String arg = "null".equals(v) || boxed ? "(" + erasure() + ") " + v : v;
+            return "SET_" + i + ".invokeExact(" + target() + ", " + arg + ")";
+        }
+
+        private String target() {
+            return inherited ? "(" + declaring.getQualifiedName() + ") value" : "value";
+        }
+    }
+}
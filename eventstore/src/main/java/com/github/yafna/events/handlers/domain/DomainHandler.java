@@ -16,7 +16,8 @@ public interface DomainHandler<A, T> extends Handler<T> {
     /**
      * Apply event
      * @param object domain object to which state is applied
-     * @param meta metadata of the event being processed
+     * @param meta metadata of the event being processed, valid only during the call
+     * (see {@link com.github.yafna.events.store.EventStore#replay})
      * @param payload event payload
      */
     A apply(A object, Event meta, T payload);
@@ -0,0 +1,14 @@
+package com.github.yafna.events.handlers.event;
+
+import com.github.yafna.events.DomainEvent;
+
+@FunctionalInterface
+public interface Emitter {
+    /**
+     * Emits a follow-up event. Origin and type are resolved from the payload class.
+     *
+     * @param aggregateId aggregate affected by the event, or null for a global event
+     * @param payload event payload
+     */
+    void emit(String aggregateId, DomainEvent<?> payload);
+}
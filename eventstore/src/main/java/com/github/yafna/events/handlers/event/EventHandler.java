@@ -0,0 +1,24 @@
+package com.github.yafna.events.handlers.event;
+
+import com.github.yafna.events.Event;
+import com.github.yafna.events.handlers.Handler;
+
+/**
+ * Handlers of this type react to events by emitting further events, e.g. to drive a process spanning
+ * several aggregates. However they are not allowed to update domain models
+ * (unlike {@link com.github.yafna.events.handlers.domain.DomainHandler}).
+ * <p>
+ * Event type handled is given by {@link com.github.yafna.events.annotations.Handler} annotation on the class.
+ *
+ * @param <T> Event type
+ */
+public interface EventHandler<T> extends Handler<T> {
+
+    /**
+     * Handle event
+     * @param meta metadata of the event being processed
+     * @param payload event payload
+     * @param emitter collects follow-up events, which are stored once the handler returns
+     */
+    void handle(Event meta, T payload, Emitter emitter);
+}
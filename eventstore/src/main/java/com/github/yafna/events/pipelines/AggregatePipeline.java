@@ -6,14 +6,31 @@ import com.github.yafna.events.annotations.EvType;
 import com.github.yafna.events.annotations.Origin;
 import com.github.yafna.events.handlers.domain.DomainHandlerRegistry;
 import com.github.yafna.events.store.EventStore;
+import com.github.yafna.events.store.NewEvent;
+import com.github.yafna.events.store.StoredEvent;
+import com.github.yafna.events.utils.Payloads;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Striped;
 import com.google.gson.Gson;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.HashMap;
+import java.time.Instant;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -21,15 +38,36 @@ import java.util.stream.Stream;
 @Slf4j
 public class AggregatePipeline<A extends Aggregate> {
     private final static String UNKNOWN_TYPE = "Unknown type";
+    private final static int MAX_SNAPSHOTTED = 1024;
+    private final static int MAX_SNAPSHOTS = 32;
+    private final static int LOCK_STRIPES = 1024;
 
-    private final Gson gson = new Gson();
+    private final Gson gson = Payloads.gson();
 
     private final EventStore store;
-    private final Map<String, A> objects = new HashMap<>();
+    private final Map<String, A> objects = new ConcurrentHashMap<>();
+    /**
+     * Serializes replays and updates of the same cached aggregate.
+     */
+    private final Striped<Lock> locks = Striped.lazyWeakLock(LOCK_STRIPES);
     private final String origin;
     private final DomainHandlerRegistry<A> handlers;
     private final Map<String, Class<?>> index;
     private final Function<String, A> constructor;
+    private UnaryOperator<A> copier;
+    private int snapshotInterval;
+    /**
+     * Past states of aggregates by seq of the last event applied, for point-in-time reads.
+     * Events are never changed once stored, so snapshots stay valid for good.
+     */
+    private final LoadingCache<String, NavigableMap<Long, Snapshot<A>>> snapshots = CacheBuilder.newBuilder().maximumSize(
+            MAX_SNAPSHOTTED
+    ).build(new CacheLoader<String, NavigableMap<Long, Snapshot<A>>>() {
+        @Override
+        public NavigableMap<Long, Snapshot<A>> load(String id) {
+            return new ConcurrentSkipListMap<>();
+        }
+    });
 
     /**
      * @param clazz Aggregate class
@@ -57,26 +95,194 @@ public class AggregatePipeline<A extends Aggregate> {
         return store(event, aggregateId);
     }
 
+    /**
+     * Stores several events of the same aggregate at once, see {@link EventStore#appendBatch}.
+     */
+    public List<Event> pushAll(String aggregateId, List<?> events) {
+        return store.appendBatch(origin, aggregateId, events.stream().map(
+                event -> new NewEvent(typeOf(event), gson.toJson(event))
+        ).collect(Collectors.toList()));
+    }
+
+    /**
+     * Brings the cached aggregate up to date. Waits for an {@link #update} of the aggregate in progress,
+     * so it never sees events which have been applied but not stored yet.
+     */
     public A get(String id) {
+        return locked(id, () -> current(id));
+    }
+
+    /**
+     * Runs an action against the cached aggregate, brought up to date, exclusively with other reads and updates
+     * of it. Events the action applies with {@link #apply} and stores with {@link #commit} become visible
+     * once it returns. If it throws, the cached aggregate is evicted, as it may hold events that were not stored.
+     */
+    public <T> T update(String id, Function<A, T> action) {
+        return locked(id, () -> {
+            try {
+                return action.apply(current(id));
+            } catch (RuntimeException e) {
+                evict(id);
+                throw e;
+            }
+        });
+    }
+
+    private A current(String id) {
         A aggregate = objects.computeIfAbsent(id, constructor);
         AtomicLong last = aggregate.getLastEvent();
-        long seq = last.get();
-        Stream<Event> events = store.getEvents(origin, id, seq);
-
-        for (Iterator<Event> it = events.iterator(); it.hasNext(); ) {
-            Event event = it.next();
+        store.replay(origin, id, last.get(), event -> {
             process(event, aggregate);
-            last.set(event.getSeq());
+            last.set(event.seq());
+        });
+        return aggregate;
+    }
+
+    private <T> T locked(String id, Supplier<T> action) {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads aggregate as it was after a given event, see {@link #setSnapshots}.
+     * The live aggregate returned by {@link #get(String)} is not affected.
+     *
+     * @param asOfSeq seq of the last event to apply
+     * @return fresh instance, which the caller is free to modify
+     */
+    public A get(String id, long asOfSeq) {
+        return getAsOf(id, snapshot -> snapshot.getSeq() <= asOfSeq, event -> event.getSeq() <= asOfSeq);
+    }
+
+    /**
+     * Reads aggregate as it was at a given moment, i.e. with all events stored up to it, inclusive.
+     *
+     * @see #get(String, long)
+     */
+    public A get(String id, Instant asOf) {
+        return getAsOf(
+                id, snapshot -> !snapshot.getStored().isAfter(asOf), event -> !event.getStored().isAfter(asOf)
+        );
+    }
+
+    /**
+     * Enables snapshots of past states, so that point-in-time reads start from the nearest earlier snapshot
+     * and replay only the events after it. Snapshots are taken while replaying, every {@code interval} events
+     * and at the point requested, and are kept for a bounded number of aggregates.
+     * Without snapshots each point-in-time read replays aggregate from the start.
+     *
+     * @param copier makes an independent deep copy of aggregate, e.g. by a round trip through Gson
+     * @param interval number of events replayed between snapshots
+     */
+    public void setSnapshots(UnaryOperator<A> copier, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Snapshot interval must be positive, got [" + interval + "]");
+        }
+        this.copier = copier;
+        this.snapshotInterval = interval;
+        snapshots.invalidateAll();
+    }
+
+    private A getAsOf(String id, Predicate<Snapshot<A>> taken, Predicate<Event> applies) {
+        NavigableMap<Long, Snapshot<A>> past = copier == null ? null : snapshots.getUnchecked(id);
+        A aggregate = Optional.ofNullable(past).flatMap(
+                p -> p.descendingMap().values().stream().filter(taken).findFirst()
+        ).map(snapshot -> copier.apply(snapshot.getState())).orElseGet(() -> constructor.apply(id));
+        AtomicLong last = aggregate.getLastEvent();
+
+        Instant stored = null;
+        int replayed = 0;
+        try (Stream<Event> events = store.getEvents(origin, id, last.get())) {
+            for (Iterator<Event> it = events.iterator(); it.hasNext(); ) {
+                Event event = it.next();
+                if (!applies.test(event)) {
+                    break;
+                }
+                process(event, aggregate);
+                last.set(event.getSeq());
+                stored = event.getStored();
+                if (past != null && ++replayed % snapshotInterval == 0) {
+                    snapshot(past, aggregate, stored);
+                }
+            }
+        }
+        if (past != null && stored != null) {
+            snapshot(past, aggregate, stored);
         }
         return aggregate;
     }
 
+    private void snapshot(NavigableMap<Long, Snapshot<A>> past, A aggregate, Instant stored) {
+        long seq = aggregate.getLastEvent().get();
+        past.computeIfAbsent(seq, s -> new Snapshot<>(seq, stored, copier.apply(aggregate)));
+        while (past.size() > MAX_SNAPSHOTS) {
+            past.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Applies a new event to aggregate in memory, ahead of storing it with {@link #commit}.
+     * Event gets the seq following the last one applied to aggregate.
+     * The cached aggregate must be applied to within {@link #update} only.
+     *
+     * @return event as it is to be stored
+     */
+    public Event apply(A aggregate, Object payload, String eventId, Instant stored) {
+        AtomicLong last = aggregate.getLastEvent();
+        StoredEvent event = new StoredEvent();
+        event.setId(eventId);
+        event.setOrigin(origin);
+        event.setAggregateId(aggregate.getId());
+        event.setSeq(last.get() + 1);
+        event.setType(typeOf(payload));
+        event.setStored(stored);
+        event.setPayload(gson.toJson(payload));
+        process(event, aggregate);
+        last.set(event.getSeq());
+        return event;
+    }
+
+    /**
+     * Stores events applied with {@link #apply} at once. If the aggregate has been appended to in the meantime,
+     * its cached state is evicted, as it no longer matches the store.
+     *
+     * @param expectedSeq seq of the first event
+     * @throws com.github.yafna.events.store.ConcurrentAppendException if the aggregate does not continue
+     *         with expected seq
+     */
+    public List<Event> commit(String aggregateId, long expectedSeq, List<Event> events) {
+        try {
+            return store.appendBatch(origin, aggregateId, expectedSeq, events.stream().map(
+                    NewEvent::of
+            ).collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            evict(aggregateId);
+            throw e;
+        }
+    }
+
+    /**
+     * Drops cached state of aggregate, so that it is read from store next time.
+     */
+    public void evict(String aggregateId) {
+        locked(aggregateId, () -> objects.remove(aggregateId));
+    }
+
     protected <T> Event store(T event, String aggregateId) {
-        String type = event.getClass().getAnnotation(EvType.class).value();
+        String type = typeOf(event);
         String json = gson.toJson(event);
         return store.persist(aggregateId).apply(origin, type, json);
     }
 
+    private static String typeOf(Object event) {
+        return event.getClass().getAnnotation(EvType.class).value();
+    }
+
     private void process(Event event, A aggregate) {
         String type = event.getType();
         Class<?> clazz = index.get(type);
@@ -90,13 +296,28 @@ public class AggregatePipeline<A extends Aggregate> {
     }
 
     private <T> void handle(Event event, Class<T> type, A object) {
-        String id = event.getId();
-        log.debug("Handling {} [{}/{}]", id, event.getType(), event.getAggregateId());
+        if (log.isDebugEnabled()) {
+            // Replayed events are decoded lazily, so their fields are not touched unless needed
+            log.debug("Handling {} [{}/{}]", event.getId(), event.getType(), event.getAggregateId());
+        }
         T payload = gson.fromJson(event.getPayload(), type);
         fold(handlers.get(type).stream().map(
                 h -> (Function<A, A>) a -> h.apply(a, event, payload)
         )).apply(object);
-        log.debug("Processed [{}]: {}", id, event.getType());
+        if (log.isDebugEnabled()) {
+            log.debug("Processed [{}]: {}", event.getId(), event.getType());
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Snapshot<A> {
+        private final long seq;
+        /**
+         * Storage time of the last event applied
+         */
+        private final Instant stored;
+        private final A state;
     }
 
     private static <T> UnaryOperator<T> fold(Stream<Function<T, T>> operations) {
@@ -0,0 +1,20 @@
+package com.github.yafna.events.pipelines;
+
+import java.util.List;
+
+/**
+ * Command addressed to a single aggregate, see {@link CommandMailboxes}.
+ * Decides which events are to be emitted given the current state of aggregate,
+ * but must not modify the aggregate itself - that is left to domain handlers of the emitted events.
+ *
+ * @param <A> aggregate type
+ */
+@FunctionalInterface
+public interface Command<A> {
+    /**
+     * @param aggregate current state of aggregate, including events emitted by commands processed before
+     * @return payloads of events to emit, in order
+     * @throws RuntimeException to reject the command, in which case it emits nothing
+     */
+    List<?> execute(A aggregate);
+}
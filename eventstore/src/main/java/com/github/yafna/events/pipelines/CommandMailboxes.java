@@ -0,0 +1,167 @@
+package com.github.yafna.events.pipelines;
+
+import com.github.yafna.events.Event;
+import com.github.yafna.events.aggregate.Aggregate;
+import com.github.yafna.events.store.ConcurrentAppendException;
+import com.github.yafna.events.store.IdGenerator;
+import com.github.yafna.events.store.TimeOrderedIdGenerator;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Command processing layer on top of {@link AggregatePipeline}.
+ * <p>
+ * Commands addressed to an aggregate are queued in its mailbox, which is drained by at most one worker at a time.
+ * The worker brings the aggregate up to date once, executes a batch of up to {@code maxBatch} queued commands
+ * against it, applying their events in memory as it goes, and stores the events of the whole batch
+ * with a single append. Thus hot aggregates are neither re-read nor locked per command, and the cost
+ * of an append is shared by the batch.
+ * <p>
+ * The batch runs as an {@link AggregatePipeline#update}, so readers of the aggregate wait for it to be stored.
+ * The append expects the seq the aggregate was at, so if it has been appended to by someone else in the meantime,
+ * the cached state is evicted and the batch is executed again against the fresh one. Other failures are not retried.
+ * Mailboxes are kept for the lifetime of this object, like aggregates in the pipeline.
+ *
+ * @param <A> aggregate type
+ */
+@Slf4j
+public class CommandMailboxes<A extends Aggregate> {
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final AggregatePipeline<A> pipeline;
+    private final Clock clock;
+    private final Executor executor;
+    private final int maxBatch;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    @Setter
+    private IdGenerator idGenerator = new TimeOrderedIdGenerator();
+
+    /**
+     * @param pipeline pipeline of aggregates, which must not be pushed to concurrently by other means
+     * @param clock clock to timestamp the events with
+     * @param executor executor to run workers on
+     * @param maxBatch maximum number of commands executed and stored at once
+     */
+    public CommandMailboxes(AggregatePipeline<A> pipeline, Clock clock, Executor executor, int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got [" + maxBatch + "]");
+        }
+        this.pipeline = pipeline;
+        this.clock = clock;
+        this.executor = executor;
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Queues a command. Commands submitted by the same thread are executed in the order of submission.
+     *
+     * @return events emitted by the command, once they are stored
+     */
+    public CompletableFuture<List<Event>> submit(String aggregateId, Command<A> command) {
+        Pending pending = new Pending(command);
+        Mailbox mailbox = mailboxes.computeIfAbsent(aggregateId, Mailbox::new);
+        mailbox.queue.add(pending);
+        mailbox.schedule();
+        return pending.result;
+    }
+
+    @RequiredArgsConstructor
+    private class Mailbox {
+        private final String aggregateId;
+        private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            List<Pending> batch = new ArrayList<>(maxBatch);
+            for (Pending pending; batch.size() < maxBatch && (pending = queue.poll()) != null; ) {
+                batch.add(pending);
+            }
+            try {
+                if (!batch.isEmpty()) {
+                    process(batch);
+                }
+            } catch (RuntimeException e) {
+                batch.forEach(pending -> pending.result.completeExceptionally(e));
+            } finally {
+                scheduled.set(false);
+                if (!queue.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+
+        private void process(List<Pending> batch) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    pipeline.update(aggregateId, aggregate -> {
+                        long expectedSeq = aggregate.getLastEvent().get() + 1;
+                        List<Event> events = new ArrayList<>();
+                        batch.forEach(pending -> {
+                            pending.emitted = execute(aggregate, pending);
+                            events.addAll(pending.emitted);
+                        });
+                        return events.isEmpty() ? events : pipeline.commit(aggregateId, expectedSeq, events);
+                    });
+                    batch.forEach(Pending::complete);
+                    return;
+                } catch (ConcurrentAppendException e) {
+                    if (attempt == MAX_ATTEMPTS) {
+                        throw e;
+                    }
+                    log.debug("Aggregate [{}] appended concurrently, retrying: {}", aggregateId, e.getMessage());
+                }
+            }
+        }
+
+        private List<Event> execute(A aggregate, Pending pending) {
+            List<?> payloads;
+            pending.rejection = null;
+            try {
+                payloads = pending.command.execute(aggregate);
+            } catch (RuntimeException e) {
+                pending.rejection = e;
+                return Collections.emptyList();
+            }
+            List<Event> emitted = new ArrayList<>(payloads.size());
+            for (Object payload : payloads) {
+                emitted.add(pipeline.apply(aggregate, payload, idGenerator.generate(), clock.instant()));
+            }
+            return emitted;
+        }
+    }
+
+    @RequiredArgsConstructor
+    private class Pending {
+        private final Command<A> command;
+        private final CompletableFuture<List<Event>> result = new CompletableFuture<>();
+        private List<Event> emitted;
+        private RuntimeException rejection;
+
+        void complete() {
+            if (rejection != null) {
+                result.completeExceptionally(rejection);
+            } else {
+                result.complete(emitted);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.yafna.events.pipelines;
+
+import com.github.yafna.events.DomainEvent;
+import com.github.yafna.events.Event;
+import com.github.yafna.events.aggregate.AggregateUtils;
+import com.github.yafna.events.annotations.Handler;
+import com.github.yafna.events.handlers.event.EventHandler;
+import com.github.yafna.events.store.EventStore;
+import com.github.yafna.events.utils.Enumerator;
+import com.github.yafna.events.utils.Payloads;
+import com.google.gson.Gson;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs {@link EventHandler}s on an executor and stores the events they emit, with cause id set to the id
+ * of the handled event and correlation id carried over from it.
+ * <p>
+ * Events sharing a key (by default, aggregate id, or correlation id for global events) are handled one after
+ * another in the order of dispatch, while events with different keys are handled concurrently.
+ * Number of events dispatched but not yet handled is bounded by {@code capacity}: once it is reached,
+ * {@link #dispatch} blocks the caller until some of them are done, so a slow handler throttles the producer
+ * instead of piling up an unbounded queue. Events dispatched from within handling itself, e.g. by store
+ * subscription callbacks of emitted events, are admitted without waiting, as the worker would be waiting for itself.
+ */
+@Slf4j
+public class EventHandlerPipeline {
+    private static final ThreadLocal<Boolean> WORKER = ThreadLocal.withInitial(() -> false);
+
+    private final Gson gson = Payloads.gson();
+
+    private final EventStore store;
+    private final Map<String, Class<?>> index;
+    private final Map<String, EventHandler<?>> handlers;
+    private final Executor executor;
+    private final Semaphore capacity;
+    private final Map<String, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+    @Setter
+    private Function<Event, String> keyFunction = EventHandlerPipeline::defaultKey;
+
+    /**
+     * @param store event store to use
+     * @param eventTypes index map (event type name) -> (event class)
+     * @param handlers handlers to run, each annotated with the event type it handles
+     * @param executor executor to run handlers on
+     * @param capacity maximum number of events dispatched and not yet handled
+     */
+    public EventHandlerPipeline(
+            EventStore store,
+            Map<String, Class<?>> eventTypes,
+            Stream<EventHandler<?>> handlers,
+            Executor executor,
+            int capacity
+    ) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got [" + capacity + "]");
+        }
+        this.store = store;
+        this.index = eventTypes;
+        this.handlers = Enumerator.indexConsumers(handlers, EventHandlerPipeline::typeOf, eventTypes);
+        this.executor = executor;
+        this.capacity = new Semaphore(capacity);
+    }
+
+    /**
+     * Schedules event to be handled after the ones with the same key dispatched before it.
+     * Blocks while the pipeline is at capacity.
+     *
+     * @return events emitted by the handler, once they are stored. Events with no handler are ignored.
+     */
+    public CompletableFuture<List<Event>> dispatch(Event event) {
+        EventHandler<?> handler = handlers.get(event.getType());
+        if (handler == null) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        boolean permit;
+        if (WORKER.get()) {
+            // Called back from a worker, see class comment
+            permit = capacity.tryAcquire();
+        } else {
+            capacity.acquireUninterruptibly();
+            permit = true;
+        }
+        String key = keyFunction.apply(event);
+        CompletableFuture<List<Event>> result = new CompletableFuture<>();
+        CompletableFuture<?> next = tails.compute(key, (k, tail) -> Optional.<CompletableFuture<?>>ofNullable(
+                tail
+        ).orElse(CompletableFuture.completedFuture(null)).handleAsync((r, e) -> {
+            run(handler, event, result);
+            return null;
+        }, executor));
+        next.whenComplete((r, e) -> {
+            tails.remove(key, next);
+            if (e != null) {
+                // Rejected by executor
+                result.completeExceptionally(e);
+            }
+        });
+        return result.whenComplete((r, e) -> {
+            if (permit) {
+                capacity.release();
+            }
+        });
+    }
+
+    /**
+     * Dispatches events of handled types from the store, starting from a given moment, and subscribes to the ones
+     * to come. Events stored exactly at that moment are skipped.
+     *
+     * @param origin origin to follow
+     * @param since the moment after which events are to be handled
+     */
+    public void follow(String origin, Instant since) {
+        handlers.keySet().forEach(type -> {
+            Instant from = since;
+            for (List<Event> events; (events = store.subscribe(origin, type, from, this::dispatch)) != null; ) {
+                events.forEach(this::dispatch);
+                from = events.stream().map(Event::getStored).max(Comparator.naturalOrder()).orElse(from);
+            }
+        });
+    }
+
+    private <T> void run(EventHandler<T> handler, Event event, CompletableFuture<List<Event>> result) {
+        WORKER.set(true);
+        try {
+            String id = event.getId();
+            log.debug("Handling {} [{}/{}]", id, event.getType(), event.getAggregateId());
+            @SuppressWarnings("unchecked")
+            T payload = gson.fromJson(event.getPayload(), (Class<T>) index.get(event.getType()));
+            List<Entry<String, DomainEvent<?>>> emitted = new ArrayList<>();
+            handler.handle(event, payload, (aggregateId, e) -> emitted.add(new SimpleEntry<>(aggregateId, e)));
+
+            String corrId = Optional.ofNullable(event.getCorrId()).orElse(id);
+            result.complete(emitted.stream().map(e -> store.persist(id, corrId, e.getKey()).apply(
+                    AggregateUtils.resolveOrigin(e.getValue()),
+                    AggregateUtils.resolveEventType(e.getValue().getClass()),
+                    gson.toJson(e.getValue())
+            )).collect(Collectors.toList()));
+            log.debug("Processed [{}]: {}, emitted {}", id, event.getType(), emitted.size());
+        } catch (RuntimeException e) {
+            log.error("Event #{} [{}] failed to be handled", event.getId(), event.getType(), e);
+            result.completeExceptionally(e);
+        } finally {
+            WORKER.set(false);
+        }
+    }
+
+    private static Optional<String> typeOf(EventHandler<?> handler) {
+        return Optional.ofNullable(handler.getClass().getAnnotation(Handler.class)).map(annotation -> {
+            if (annotation.value().length != 1) {
+                throw new IllegalStateException(
+                        "Event handler [" + handler.getClass().getName() + "] must be annotated with exactly one event type"
+                );
+            }
+            return annotation.value()[0];
+        });
+    }
+
+    private static String defaultKey(Event event) {
+        return Optional.ofNullable(event.getAggregateId()).orElse(
+                Optional.ofNullable(event.getCorrId()).orElse(event.getId())
+        );
+    }
+}
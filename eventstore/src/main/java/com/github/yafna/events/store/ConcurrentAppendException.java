@@ -0,0 +1,16 @@
+package com.github.yafna.events.store;
+
+/**
+ * Thrown by {@link EventStore#appendBatch(String, String, Long, java.util.List)} if the aggregate does not continue
+ * with the expected sequence number, since someone else has appended to it in the meantime.
+ * Unlike other failures of an append, it is worth retrying against the fresh state of the aggregate.
+ */
+public class ConcurrentAppendException extends IllegalStateException {
+    public ConcurrentAppendException(String message) {
+        super(message);
+    }
+
+    public ConcurrentAppendException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
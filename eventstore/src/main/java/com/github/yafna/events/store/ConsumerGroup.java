@@ -0,0 +1,48 @@
+package com.github.yafna.events.store;
+
+import com.github.yafna.events.Event;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Named group of consumers sharing the events of an origin, see {@link EventStore#group}.
+ * The stream of events is split into partitions by aggregate id hash, and each partition is leased to exactly
+ * one member of the group at a time, which consumes it in order and records its offset.
+ * Thus events of an aggregate are consumed in seq order, while the throughput grows with the number of members.
+ * <p>
+ * Partitions are reassigned as members join and leave, or stop polling for longer than the lease lasts.
+ * Offsets are recorded after events have been consumed, so an event may be delivered again
+ * to the next owner of a partition if its previous owner has not finished cleanly.
+ */
+public interface ConsumerGroup {
+    /**
+     * Joins the group. Member ids must be unique within the group, e.g. host, process and thread.
+     */
+    Member join(String memberId);
+
+    interface Member extends Closeable {
+        /**
+         * Takes up partitions assigned to this member and gives up the ones which are not,
+         * then feeds events of owned partitions, from their recorded offsets on, to the consumer.
+         * Must be called regularly, as it also keeps the member alive.
+         *
+         * @param max maximum number of events to consume per partition
+         * @param consumer consumer of events
+         * @return number of events consumed
+         */
+        int poll(int max, Consumer<Event> consumer);
+
+        /**
+         * Partitions owned as of the last poll.
+         */
+        Set<Integer> partitions();
+
+        /**
+         * Leaves the group, releasing owned partitions.
+         */
+        @Override
+        void close();
+    }
+}
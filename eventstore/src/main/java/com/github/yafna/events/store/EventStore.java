@@ -3,6 +3,7 @@ package com.github.yafna.events.store;
 import com.github.yafna.events.Event;
 
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
@@ -28,6 +29,33 @@ public interface EventStore {
      */
     List<Event> subscribe(String origin, String type, Instant since, Consumer<Event> callback);
 
+    /**
+     * Feeds events of a given aggregate to the consumer, like {@link #getEvents} does, but lets the store
+     * pass the same reusable instance for every event, to keep allocation low during replay.
+     * Such an instance is valid only until the consumer returns, events that need to outlive it
+     * must be copied with {@link StoredEvent#of}.
+     *
+     * @param origin aggregate type
+     * @param aggregateId aggregate id
+     * @param fromSeq event sequence number after which events should be replayed
+     * @param consumer consumer of events, in seq order
+     */
+    default void replay(String origin, String aggregateId, Long fromSeq, Consumer<? super Event> consumer) {
+        try (Stream<Event> events = getEvents(origin, aggregateId, fromSeq)) {
+            events.forEach(consumer);
+        }
+    }
+
+    /**
+     * Returns a named consumer group of an origin, creating it if needed. Groups of the same name
+     * share their members and offsets, including those of other processes using the same store.
+     *
+     * @throws UnsupportedOperationException if store does not support consumer groups
+     */
+    default ConsumerGroup group(String origin, String name) {
+        throw new UnsupportedOperationException("Consumer groups are not supported by " + getClass().getSimpleName());
+    }
+
     Persister persist(String aggregateId);
 
     Persister persist(String causeId, String corrId, String aggregateId);
@@ -36,6 +64,54 @@ public interface EventStore {
 
     Persister persist();
 
+    /**
+     * Persister storing the event under an id supplied by the caller, which serves as idempotency key:
+     * if an event with the same id has been stored in the origin already, it is returned instead,
+     * so that a producer may safely retry after a timeout.
+     * Stores without deduplication of their own append the event with the given id.
+     *
+     * @param eventId id of the event, e.g. a uuid generated by the producer once per event
+     */
+    default Persister persistOnce(String eventId, String causeId, String corrId, String aggregateId) {
+        return (origin, type, payload) -> appendBatch(origin, aggregateId, null, Collections.singletonList(
+                new NewEvent(eventId, type, payload, causeId, corrId, null)
+        )).get(0);
+    }
+
+    default Persister persistOnce(String eventId, String aggregateId) {
+        return persistOnce(eventId, null, null, aggregateId);
+    }
+
+    /**
+     * Appends several events to a single aggregate at once.
+     * Events get a contiguous range of sequence numbers and become visible together - either all of them are
+     * stored or none.
+     *
+     * @param origin aggregate type
+     * @param aggregateId aggregate id, required
+     * @param events events to append, in order
+     * @return stored events
+     */
+    default List<Event> appendBatch(String origin, String aggregateId, List<NewEvent> events) {
+        if (aggregateId == null) {
+            throw new IllegalArgumentException("Batch append requires aggregate id");
+        }
+        return appendBatch(origin, aggregateId, null, events);
+    }
+
+    /**
+     * Appends several events at once, checking that the first of them gets the expected sequence number.
+     * Without aggregate id events are stored one by one as global events, with no atomicity guarantees.
+     *
+     * @param origin aggregate type
+     * @param aggregateId aggregate id, optional
+     * @param expectedSeq sequence number the first event must get, or null to append after the last one
+     * @param events events to append, in order
+     * @return stored events
+     * @throws ConcurrentAppendException if aggregate does not continue with expected sequence number
+     */
+    List<Event> appendBatch(String origin, String aggregateId, Long expectedSeq, List<NewEvent> events);
+
     @FunctionalInterface
     interface Persister {
         Event apply(String origin, String type, String payload);
@@ -0,0 +1,17 @@
+package com.github.yafna.events.store;
+
+import java.util.UUID;
+
+/**
+ * Generates unique event ids.
+ */
+@FunctionalInterface
+public interface IdGenerator {
+    /**
+     * Random UUIDs (version 4). Backed by a shared {@link java.security.SecureRandom}, which is contended
+     * under concurrent appends.
+     */
+    IdGenerator RANDOM = () -> UUID.randomUUID().toString();
+
+    String generate();
+}
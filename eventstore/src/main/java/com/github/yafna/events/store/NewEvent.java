@@ -0,0 +1,40 @@
+package com.github.yafna.events.store;
+
+import com.github.yafna.events.Event;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Instant;
+
+/**
+ * Event that is about to be appended to store: type and JSON payload,
+ * optionally along with ids of the event that has caused it (see {@link Event}).
+ * Id and storage time are normally assigned by the store, unless they are provided here.
+ */
+@Getter
+@AllArgsConstructor
+public class NewEvent {
+    private final String id;
+    private final String type;
+    private final String payload;
+    private final String causeId;
+    private final String corrId;
+    private final Instant stored;
+
+    public NewEvent(String type, String payload) {
+        this(type, payload, null, null);
+    }
+
+    public NewEvent(String type, String payload, String causeId, String corrId) {
+        this(null, type, payload, causeId, corrId, null);
+    }
+
+    /**
+     * Copy of an existing event, retaining its id and storage time. Used to move events between stores.
+     */
+    public static NewEvent of(Event event) {
+        return new NewEvent(
+                event.getId(), event.getType(), event.getPayload(), event.getCauseId(), event.getCorrId(), event.getStored()
+        );
+    }
+}
@@ -23,4 +23,21 @@ public class StoredEvent implements Event, Serializable {
      * JSON representation of the event.
      */
     private String payload;
+
+    /**
+     * Copy of an event, e.g. to keep a replayed one past its consumer, see {@link EventStore#replay}.
+     */
+    public static StoredEvent of(Event event) {
+        StoredEvent copy = new StoredEvent();
+        copy.setId(event.getId());
+        copy.setAggregateId(event.getAggregateId());
+        copy.setSeq(event.getSeq());
+        copy.setCorrId(event.getCorrId());
+        copy.setCauseId(event.getCauseId());
+        copy.setOrigin(event.getOrigin());
+        copy.setType(event.getType());
+        copy.setStored(event.getStored());
+        copy.setPayload(event.getPayload());
+        return copy;
+    }
 }
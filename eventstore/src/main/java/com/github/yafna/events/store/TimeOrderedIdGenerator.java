@@ -0,0 +1,59 @@
+package com.github.yafna.events.store;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates UUIDs (version 7 layout) that sort by creation time, both as values and as strings:
+ * 48 bits of unix epoch milliseconds, 12 bits of per-thread counter and 62 random bits.
+ * <p>
+ * State is kept per thread, so no synchronization is involved. Ids generated by a thread are strictly
+ * increasing: the counter orders ids within the same millisecond and when it overflows, or clock
+ * goes backwards, the timestamp of the previous id is carried on.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+    private static final int COUNTER_BITS = 12;
+    private static final long COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+
+    private final LongSupplier millis;
+    private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+    public TimeOrderedIdGenerator() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param millis source of current time, in milliseconds since epoch
+     */
+    public TimeOrderedIdGenerator(LongSupplier millis) {
+        this.millis = millis;
+    }
+
+    @Override
+    public String generate() {
+        return next().toString();
+    }
+
+    public UUID next() {
+        State s = state.get();
+        long now = millis.getAsLong();
+        if (now > s.time) {
+            s.time = now;
+            s.counter = 0;
+        } else if (s.counter < COUNTER_MAX) {
+            s.counter++;
+        } else {
+            s.time++;
+            s.counter = 0;
+        }
+        long msb = (s.time << 16) | (0x7L << COUNTER_BITS) | s.counter;
+        long lsb = (ThreadLocalRandom.current().nextLong() >>> 2) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+
+    private static class State {
+        private long time = Long.MIN_VALUE;
+        private long counter;
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Seals serialized records with a CRC32C trailer of the form {@code \n#crc32c=xxxxxxxx}.
+ * The trailer follows the record, so sealed event files still start with plain JSON.
+ * Records written before checksums were introduced carry no trailer, they are accepted as they are
+ * only if the caller asks for it explicitly, in order to migrate a store predating checksums.
+ */
+final class Checksums {
+    private static final byte[] PREFIX = "\n#crc32c=".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER = PREFIX.length + 8;
+
+    private Checksums() {
+    }
+
+    static byte[] seal(byte[] record) {
+        byte[] result = Arrays.copyOf(record, record.length + TRAILER);
+        System.arraycopy(PREFIX, 0, result, record.length, PREFIX.length);
+        byte[] hex = String.format("%08x", crc(record, record.length)).getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(hex, 0, result, record.length + PREFIX.length, hex.length);
+        return result;
+    }
+
+    /**
+     * Verifies and strips the trailer.
+     *
+     * @param source file the record was read from, for error reporting
+     * @param acceptUnsealed whether a record without trailer is returned as it is
+     * @throws IllegalStateException if checksum does not match the record, or it is missing and not accepted
+     */
+    static byte[] open(byte[] bytes, Object source, boolean acceptUnsealed) {
+        int length = length(bytes, source, acceptUnsealed);
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Verifies the trailer without copying the record.
+     *
+     * @return length of the record without trailer
+     * @throws IllegalStateException if checksum does not match the record, or it is missing and not accepted
+     */
+    static int length(byte[] bytes, Object source, boolean acceptUnsealed) {
+        if (!hasTrailer(bytes)) {
+            if (acceptUnsealed) {
+                return bytes.length;
+            }
+            throw new IllegalStateException("Checksum missing in [" + String.valueOf(source) + "]");
+        }
+        int length = bytes.length - TRAILER;
+        if (crc(bytes, length) != stored(bytes)) {
+            throw new IllegalStateException("Checksum mismatch in [" + String.valueOf(source) + "]");
+        }
+        return length;
+    }
+
+    /**
+     * Returns true if record carries a trailer and its checksum matches.
+     */
+    static boolean isSealed(byte[] bytes) {
+        return hasTrailer(bytes) && crc(bytes, bytes.length - TRAILER) == stored(bytes);
+    }
+
+    private static boolean hasTrailer(byte[] bytes) {
+        if (bytes.length < TRAILER) {
+            return false;
+        }
+        int start = bytes.length - TRAILER;
+        for (int i = 0; i < PREFIX.length; i++) {
+            if (bytes[start + i] != PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long crc(byte[] bytes, int length) {
+        return Hashing.crc32c().hashBytes(bytes, 0, length).asInt() & 0xffffffffL;
+    }
+
+    /**
+     * Checksum from the trailer, or -1 if trailer is damaged.
+     */
+    private static long stored(byte[] bytes) {
+        String hex = new String(bytes, bytes.length - 8, 8, StandardCharsets.US_ASCII);
+        try {
+            return Long.parseLong(hex, 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.github.yafna.events.store.file;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip compressed file holding global events of an origin expired by {@link EventRetention}, kept in hidden
+ * {@code .cold} directory of the origin in the first store root. Archive is named after the file name of
+ * its last event, so archives sort in storage time order, and holds (file name, sealed record) pairs
+ * in the order of file names.
+ */
+@Getter
+@AllArgsConstructor
+@Slf4j
+class ColdArchive {
+    static final String DIR = ".cold";
+    private static final String SUFFIX = ".gz";
+    private static final int MAGIC = 0x45564331;
+
+    private final Path path;
+    /**
+     * File name of the last event in the archive
+     */
+    private final String last;
+
+    static Optional<ColdArchive> of(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX) || !FileEventStore.IS_EVENT.test(path.resolveSibling(last(name)))) {
+            return Optional.empty();
+        }
+        return Optional.of(new ColdArchive(path, last(name)));
+    }
+
+    private static String last(String name) {
+        return name.substring(0, name.length() - SUFFIX.length());
+    }
+
+    /**
+     * Lists archives of a cold directory in storage time order.
+     */
+    static List<ColdArchive> list(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        return FileEventStore.list(dir).stream().map(ColdArchive::of).filter(Optional::isPresent).map(
+                Optional::get
+        ).sorted((a, b) -> a.getLast().compareTo(b.getLast())).collect(Collectors.toList());
+    }
+
+    /**
+     * Reads all records of the archive. Returns nothing if the archive has been removed in the meantime.
+     */
+    List<Record> read() {
+        List<Record> result = new ArrayList<>();
+        scan(record -> {
+            result.add(record);
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Looks up a single event by its file name. Records are held in the order of file names,
+     * so decompression stops as soon as the name has been passed.
+     */
+    Optional<Record> find(String name) {
+        Record[] found = new Record[1];
+        scan(record -> {
+            int order = record.getName().compareTo(name);
+            if (order == 0) {
+                found[0] = record;
+            }
+            return order < 0;
+        });
+        return Optional.ofNullable(found[0]);
+    }
+
+    /**
+     * Feeds records to a visitor in the order they are stored, until it returns {@code false}.
+     */
+    private void scan(Predicate<Record> visitor) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path))
+        ))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalStateException("Not a cold archive: [" + String.valueOf(path) + "]");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                if (!visitor.test(new Record(name, bytes))) {
+                    return;
+                }
+            }
+        } catch (NoSuchFileException e) {
+            log.debug("Cold archive [{}] has been removed", path);
+        } catch (EOFException e) {
+            throw new IllegalStateException("Truncated cold archive: [" + String.valueOf(path) + "]", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(path) + "]", e);
+        }
+    }
+
+    /**
+     * Reads records of archives one archive at a time.
+     */
+    static Stream<Record> read(List<ColdArchive> archives) {
+        return archives.stream().flatMap(archive -> archive.read().stream());
+    }
+
+    /**
+     * Writes records into a new archive. The archive is written under a temporary name, forced to disk
+     * and then atomically moved into place, so readers either see the complete archive or nothing.
+     *
+     * @param dir cold directory of the origin
+     * @param records records ordered by file name
+     */
+    static ColdArchive write(Path dir, List<Record> records) {
+        String last = records.get(records.size() - 1).getName();
+        Path target = dir.resolve(last + SUFFIX);
+        Path tmp = target.resolveSibling(target.getFileName().toString() + RecoveryJournal.TMP_SUFFIX);
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(
+                    tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+            )) {
+                GZIPOutputStream gzip = new GZIPOutputStream(Channels.newOutputStream(channel));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+                out.writeInt(MAGIC);
+                out.writeInt(records.size());
+                for (Record record : records) {
+                    out.writeUTF(record.getName());
+                    out.writeInt(record.getBytes().length);
+                    out.write(record.getBytes());
+                }
+                out.flush();
+                gzip.finish();
+                channel.force(true);
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write [" + String.valueOf(tmp) + "]", e);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to move [" + String.valueOf(tmp) + "] into place", e);
+        }
+        EventArchive.forceDirectory(dir);
+        return new ColdArchive(target, last);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Record {
+        /**
+         * File name the event had in the origin directory
+         */
+        private final String name;
+        private final byte[] bytes;
+    }
+}
@@ -0,0 +1,163 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.store.file.EventArchive.Record;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Background job that packs sealed ranges of aggregate events into {@link EventArchive}s.
+ * <p>
+ * Aggregate history is split into aligned ranges of {@code rangeSize} events. A range is sealed
+ * once all of its events are present as standalone files and a later event exists,
+ * so the newest event of an aggregate always stays a standalone file.
+ * Archive is moved into place atomically before standalone files are removed,
+ * thus readers and writers can keep running while compaction is in progress.
+ * Standalone files left behind by a pass interrupted after the move are removed by the next one.
+ * <p>
+ * Disk reads and writes are throttled by {@code bytesPerSecond}, before they are issued,
+ * in order not to starve foreground I/O.
+ */
+@Slf4j
+public class Compactor implements Closeable {
+    private final FileEventStore store;
+    private final int rangeSize;
+    private final RateLimiter limiter;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-compactor-%d").build()
+    );
+
+    /**
+     * @param store store which directories are to be compacted
+     * @param rangeSize number of events in a single archive
+     * @param bytesPerSecond I/O budget of compaction
+     */
+    public Compactor(FileEventStore store, int rangeSize, double bytesPerSecond) {
+        if (rangeSize < 2) {
+            throw new IllegalArgumentException("Range size must be at least 2, got [" + rangeSize + "]");
+        }
+        this.store = store;
+        this.rangeSize = rangeSize;
+        this.limiter = RateLimiter.create(bytesPerSecond);
+    }
+
+    /**
+     * Schedules compaction passes with a given delay between them.
+     */
+    public void start(Duration period) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (RuntimeException e) {
+                log.error("Compaction pass failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single compaction pass over all aggregates in store.
+     *
+     * @return number of archives created
+     */
+    public int compact() {
+        return store.aggregateDirectories().mapToInt(this::compact).sum();
+    }
+
+    int compact(Path dir) {
+        List<Path> files = FileEventStore.list(dir);
+        List<EventArchive> archives = new ArrayList<>();
+        files.forEach(file -> EventArchive.of(file).ifPresent(archives::add));
+
+        TreeMap<Long, Path> loose = new TreeMap<>();
+        files.stream().filter(FileEventStore.IS_EVENT).forEach(
+                file -> loose.put(FileEventStore.getSeqFromFileEvent(file.getFileName()), file)
+        );
+        long last = Math.max(
+                Optional.ofNullable(loose.lastEntry()).map(Map.Entry::getKey).orElse(-1L),
+                archives.stream().mapToLong(EventArchive::getLast).max().orElse(-1L)
+        );
+
+        // Left behind by a pass which stopped after moving its archive into place
+        List<Path> leftover = loose.entrySet().stream().filter(
+                e -> archives.stream().anyMatch(a -> a.getFirst() <= e.getKey() && e.getKey() <= a.getLast())
+        ).map(Map.Entry::getValue).collect(Collectors.toList());
+        leftover.forEach(Compactor::delete);
+        leftover.forEach(file -> loose.values().remove(file));
+
+        int created = 0;
+        for (long first = 0; first + rangeSize - 1 < last; first += rangeSize) {
+            long end = first + rangeSize - 1;
+            Map<Long, Path> range = loose.subMap(first, true, end, true);
+            long start = first;
+            boolean covered = archives.stream().anyMatch(a -> a.getFirst() <= end && start <= a.getLast());
+            if (range.size() == rangeSize && !covered) {
+                pack(dir, range);
+                created++;
+            }
+        }
+        if (created > 0 || !leftover.isEmpty()) {
+            store.rebuildManifest(dir);
+        }
+        return created;
+    }
+
+    private void pack(Path dir, Map<Long, Path> range) {
+        List<Record> records = new ArrayList<>(range.size());
+        range.forEach((seq, file) -> {
+            limiter.acquire(permits(size(file)));
+            records.add(new Record(seq, read(file)));
+        });
+        limiter.acquire(permits(records.stream().mapToLong(r -> r.getBytes().length).sum()));
+        EventArchive archive = store.writeArchive(dir, records);
+        range.values().forEach(Compactor::delete);
+        log.info("Compacted [{}..{}] into {}", archive.getFirst(), archive.getLast(), archive.getPath());
+    }
+
+    private static int permits(long bytes) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes));
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    private static byte[] read(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to delete [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bounded index of ids of the latest events written with {@link FileEventStore#persistOnce}, locating them
+ * in the store. Keys are 64-bit hashes of origin and event id, held in primitive arrays: a ring of the last
+ * {@code window} keys along with their locations, and an open addressing table pointing into the ring.
+ * Both lookup and insertion take constant time, the oldest key is evicted once the window is full.
+ * <p>
+ * Locations are {@link Feed} entries - {@code seq aggregateId} or {@code =fileName}. Hashes may collide,
+ * so a located event has to be checked to carry the requested id.
+ */
+class DedupIndex {
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private static final int EMPTY = -1;
+
+    private final long[] keys;
+    private final String[] locations;
+    /**
+     * Slots of the ring by key hash, linear probing, at most half full
+     */
+    private final int[] table;
+    private final int mask;
+    private int next;
+    private int size;
+
+    /**
+     * @param window number of latest events to remember
+     */
+    DedupIndex(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Deduplication window must be positive, got [" + window + "]");
+        }
+        this.keys = new long[window];
+        this.locations = new String[window];
+        int capacity = Integer.highestOneBit(window * 2 - 1) << 1;
+        this.table = new int[capacity];
+        this.mask = capacity - 1;
+        Arrays.fill(table, EMPTY);
+    }
+
+    static long key(String origin, String id) {
+        return HASH.newHasher().putString(origin, StandardCharsets.UTF_8).putByte((byte) 0).putString(
+                id, StandardCharsets.UTF_8
+        ).hash().asLong();
+    }
+
+    /**
+     * @return location of the event with a given key, or null if it is not within the window
+     */
+    synchronized String get(long key) {
+        int slot = find(key);
+        return slot == EMPTY ? null : locations[slot];
+    }
+
+    /**
+     * Records location of an event, evicting the oldest one if the window is full.
+     */
+    synchronized void put(long key, String location) {
+        int existing = find(key);
+        if (existing != EMPTY) {
+            locations[existing] = location;
+            return;
+        }
+        if (size == keys.length) {
+            remove(keys[next]);
+        } else {
+            size++;
+        }
+        keys[next] = key;
+        locations[next] = location;
+        int i = index(key);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = next;
+        next = (next + 1) % keys.length;
+    }
+
+    private int find(long key) {
+        for (int i = index(key); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[table[i]] == key) {
+                return table[i];
+            }
+        }
+        return EMPTY;
+    }
+
+    /**
+     * Removes key from the table, shifting the entries of its probe sequence back.
+     */
+    private void remove(long key) {
+        int i = index(key);
+        while (keys[table[i]] != key) {
+            i = (i + 1) & mask;
+        }
+        table[i] = EMPTY;
+        for (int j = (i + 1) & mask; table[j] != EMPTY; j = (j + 1) & mask) {
+            int home = index(keys[table[j]]);
+            // Entry at j may move to the gap at i unless its home lies cyclically within (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                table[i] = table[j];
+                table[j] = EMPTY;
+                i = j;
+            }
+        }
+    }
+
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+}
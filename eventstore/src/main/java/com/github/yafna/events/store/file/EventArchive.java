@@ -0,0 +1,186 @@
+package com.github.yafna.events.store.file;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A single file holding a contiguous range of events of one aggregate, named after the first and the last seq.
+ * File starts with a header (magic, record count), followed by index entries (seq, offset, length)
+ * and finally by the serialized records themselves, in the same format as standalone event files.
+ */
+@Getter
+@AllArgsConstructor
+@Slf4j
+class EventArchive {
+    static final String SUFFIX = ".pack";
+    private static final String NAME_PATTERN = "{0,number,00000000}-{1,number,00000000}" + SUFFIX;
+    private static final int MAGIC = 0x45564131;
+    private static final int HEADER = 8;
+    private static final int ENTRY = 20;
+
+    private final Path path;
+    private final long first;
+    private final long last;
+
+    static Optional<EventArchive> of(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return Optional.empty();
+        }
+        // MessageFormat would take the suffix dot for a decimal separator, hence manual parsing
+        String[] range = name.substring(0, name.length() - SUFFIX.length()).split("-");
+        try {
+            return Optional.of(new EventArchive(path, Long.parseLong(range[0]), Long.parseLong(range[1])));
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Error parsing archive name: " + name, e);
+        }
+    }
+
+    boolean covers(long seq) {
+        return first <= seq && seq <= last;
+    }
+
+    /**
+     * Reads all records with seq greater than the given one, in seq order.
+     */
+    List<Record> read(long afterSeq) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            List<Record> result = new ArrayList<>();
+            for (Slot slot : index(channel, afterSeq)) {
+                result.add(new Record(slot.getSeq(), readFully(channel, slot.getOffset(), slot.getLength()).array()));
+            }
+            return result;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(path) + "]", e);
+        }
+    }
+
+    /**
+     * Reads positions of records with seq greater than the given one, in seq order.
+     *
+     * @param channel channel opened on this archive
+     */
+    List<Slot> index(FileChannel channel, long afterSeq) throws IOException {
+        ByteBuffer header = readFully(channel, 0, HEADER);
+        if (header.getInt() != MAGIC) {
+            throw new IllegalStateException("Not an event archive: [" + String.valueOf(path) + "]");
+        }
+        int count = header.getInt();
+        ByteBuffer index = readFully(channel, HEADER, count * ENTRY);
+        List<Slot> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Slot slot = new Slot(index.getLong(), index.getLong(), index.getInt());
+            if (slot.getSeq() > afterSeq) {
+                result.add(slot);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Describes the archive that would hold given records.
+     *
+     * @param dir aggregate directory
+     * @param records records ordered by seq, without gaps
+     */
+    static EventArchive name(Path dir, List<Record> records) {
+        long first = records.get(0).getSeq();
+        long last = records.get(records.size() - 1).getSeq();
+        return new EventArchive(dir.resolve(MessageFormat.format(NAME_PATTERN, first, last)), first, last);
+    }
+
+    /**
+     * Writes records into a new archive. The archive is written under a temporary name, forced to disk
+     * and then atomically moved into place, so readers either see the complete archive or nothing.
+     *
+     * @param archive archive to create, as returned by {@link #name(Path, List)}
+     * @param records records ordered by seq, without gaps
+     */
+    static EventArchive write(EventArchive archive, List<Record> records) {
+        Path target = archive.getPath();
+        Path tmp = target.resolveSibling(target.getFileName().toString() + RecoveryJournal.TMP_SUFFIX);
+
+        int indexSize = HEADER + records.size() * ENTRY;
+        ByteBuffer index = ByteBuffer.allocate(indexSize);
+        index.putInt(MAGIC).putInt(records.size());
+        long offset = indexSize;
+        ByteBuffer[] buffers = new ByteBuffer[records.size() + 1];
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            index.putLong(record.getSeq()).putLong(offset).putInt(record.getBytes().length);
+            offset += record.getBytes().length;
+            buffers[i + 1] = ByteBuffer.wrap(record.getBytes());
+        }
+        index.flip();
+        buffers[0] = index;
+
+        try (FileChannel channel = FileChannel.open(
+                tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            while (channel.position() < offset) {
+                channel.write(buffers);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write [" + String.valueOf(tmp) + "]", e);
+        }
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to move [" + String.valueOf(tmp) + "] into place", e);
+        }
+        forceDirectory(target.getParent());
+        return archive;
+    }
+
+    /**
+     * Forces directory entries to disk, so that a file just moved into the directory survives a crash.
+     * Platforms which are unable to open a directory for reading are left as they are.
+     */
+    static void forceDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("Unable to force [{}]", dir, e);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Slot {
+        private final long seq;
+        private final long offset;
+        private final int length;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Record {
+        private final long seq;
+        private final byte[] bytes;
+    }
+}
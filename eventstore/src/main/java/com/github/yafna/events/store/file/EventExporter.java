@@ -0,0 +1,237 @@
+package com.github.yafna.events.store.file;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Streams events of a {@link FileEventStore} into a single export file, to be loaded by {@link EventImporter}.
+ * <p>
+ * Export file starts with a magic number, followed by frames of (length, record) and an end marker (length of -1).
+ * Records are copied as they are stored, checksums included, with {@link FileChannel#transferTo}
+ * and without being deserialized, so memory use does not depend on the size of the store.
+ * For each origin global events go first, those moved to its cold archive by {@link EventRetention} ahead
+ * of the rest, followed by aggregates, each in seq order.
+ * <p>
+ * Usage: {@code EventExporter <rootDir>[,<rootDir>...] <shardLevels> <target> [origin...]}
+ */
+@Slf4j
+public class EventExporter {
+    static final int MAGIC = 0x45565831;
+    static final int END = -1;
+
+    private final FileEventStore store;
+
+    public EventExporter(FileEventStore store) {
+        this.store = store;
+    }
+
+    public static void main(String... args) {
+        if (args.length < 3) {
+            System.err.println("Usage: EventExporter <rootDir>[,<rootDir>...] <shardLevels> <target> [origin...]");
+            System.exit(1);
+        }
+        FileEventStore store = new GsonFileEventStore(
+                Clock.systemUTC(), Roots.parse(args[0]), Layout.sharded(Integer.parseInt(args[1]))
+        );
+        List<String> origins = Arrays.asList(args).subList(3, args.length);
+        long count = new EventExporter(store).export(Paths.get(args[2]), origins, Collections.emptyList());
+        System.out.println("Exported " + count + " events");
+    }
+
+    /**
+     * Exports events into a file.
+     *
+     * @param target export file, overwritten if exists
+     * @param origins origins to export, all if empty
+     * @param aggregateIds aggregates to export, all if empty. Global events are exported only if this is empty.
+     * @return number of events exported
+     */
+    public long export(Path target, Collection<String> origins, Collection<String> aggregateIds) {
+        try (FileChannel out = FileChannel.open(
+                target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            return export(out, origins, aggregateIds);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to export into [" + String.valueOf(target) + "]", e);
+        }
+    }
+
+    /**
+     * Exports events into a channel.
+     *
+     * @see #export(Path, Collection, Collection)
+     */
+    public long export(WritableByteChannel out, Collection<String> origins, Collection<String> aggregateIds)
+            throws IOException {
+        write(out, MAGIC);
+        long count = 0;
+        List<Path> originDirs = store.originDirectories().filter(
+                dir -> origins.isEmpty() || origins.contains(dir.getFileName().toString())
+        ).sorted().collect(Collectors.toList());
+        for (Path originDir : originDirs) {
+            if (aggregateIds.isEmpty()) {
+                List<Path> globals = FileEventStore.list(originDir).stream().filter(
+                        FileEventStore.IS_EVENT
+                ).sorted().collect(Collectors.toList());
+                count += exportCold(out, originDir.resolve(ColdArchive.DIR), globals);
+                for (Path file : globals) {
+                    count += transferGlobal(out, originDir.resolve(ColdArchive.DIR), file);
+                }
+            }
+            List<Path> aggregates = store.aggregateDirectories(originDir).filter(
+                    dir -> aggregateIds.isEmpty() || aggregateIds.contains(dir.getFileName().toString())
+            ).sorted().collect(Collectors.toList());
+            for (Path dir : aggregates) {
+                count += exportAggregate(out, dir);
+            }
+            log.info("Exported [{}], {} events so far", originDir.getFileName(), count);
+        }
+        write(out, END);
+        return count;
+    }
+
+    private long exportAggregate(WritableByteChannel out, Path dir) throws IOException {
+        List<Path> files = FileEventStore.list(dir);
+        List<EventArchive> archives = files.stream().map(EventArchive::of).filter(Optional::isPresent).map(
+                Optional::get
+        ).collect(Collectors.toList());
+        List<Part> parts = Stream.concat(
+                files.stream().filter(FileEventStore.IS_EVENT).map(
+                        file -> new Part(FileEventStore.getSeqFromFileEvent(file.getFileName()), file, null)
+                ).filter(part -> archives.stream().noneMatch(a -> a.covers(part.getSeq()))),
+                archives.stream().map(a -> new Part(a.getFirst(), null, a))
+        ).sorted(Comparator.comparingLong(Part::getSeq)).collect(Collectors.toList());
+
+        long count = 0;
+        for (Part part : parts) {
+            if (part.getArchive() != null) {
+                count += transferArchive(out, part.getArchive(), -1, Long.MAX_VALUE);
+            } else {
+                try {
+                    count += transferFile(out, part.getFile());
+                } catch (NoSuchFileException e) {
+                    // Compacted after the directory was listed
+                    long seq = part.getSeq();
+                    EventArchive archive = FileEventStore.list(dir).stream().map(EventArchive::of).filter(
+                            Optional::isPresent
+                    ).map(Optional::get).filter(a -> a.covers(seq)).findFirst().orElseThrow(() -> e);
+                    count += transferArchive(out, archive, seq - 1, seq);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Exports global events of the cold archive, except those still listed in the origin directory.
+     * The directory is listed before the archive is read, so that events archived in between are exported once.
+     */
+    private static long exportCold(WritableByteChannel out, Path coldDir, List<Path> globals) throws IOException {
+        Set<String> names = globals.stream().map(file -> file.getFileName().toString()).collect(Collectors.toSet());
+        long count = 0;
+        for (ColdArchive archive : ColdArchive.list(coldDir)) {
+            for (ColdArchive.Record record : archive.read()) {
+                if (!names.contains(record.getName())) {
+                    write(out, record.getBytes());
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Exports a global event file, or its record in the cold archive if it has been archived since it was listed.
+     */
+    private static long transferGlobal(WritableByteChannel out, Path coldDir, Path file) throws IOException {
+        try {
+            return transferFile(out, file);
+        } catch (NoSuchFileException e) {
+            String name = file.getFileName().toString();
+            Optional<ColdArchive.Record> record = ColdArchive.list(coldDir).stream().filter(
+                    a -> a.getLast().compareTo(name) >= 0
+            ).findFirst().flatMap(a -> a.find(name));
+            if (record.isPresent()) {
+                write(out, record.get().getBytes());
+                return 1;
+            }
+            log.warn("Global event [{}] has been dropped while exporting", file);
+            return 0;
+        }
+    }
+
+    private static long transferFile(WritableByteChannel out, Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = in.size();
+            write(out, (int) size);
+            transfer(in, 0, size, out);
+            return 1;
+        }
+    }
+
+    private static long transferArchive(WritableByteChannel out, EventArchive archive, long afterSeq, long toSeq)
+            throws IOException {
+        try (FileChannel in = FileChannel.open(archive.getPath(), StandardOpenOption.READ)) {
+            long count = 0;
+            for (EventArchive.Slot slot : archive.index(in, afterSeq)) {
+                if (slot.getSeq() <= toSeq) {
+                    write(out, slot.getLength());
+                    transfer(in, slot.getOffset(), slot.getLength(), out);
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private static void transfer(FileChannel in, long position, long length, WritableByteChannel out)
+            throws IOException {
+        for (long done = 0; done < length; ) {
+            done += in.transferTo(position + done, length - done, out);
+        }
+    }
+
+    private static void write(WritableByteChannel out, byte[] record) throws IOException {
+        write(out, record.length);
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static void write(WritableByteChannel out, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4).putInt(value);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Part {
+        private final long seq;
+        private final Path file;
+        private final EventArchive archive;
+    }
+}
@@ -0,0 +1,115 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.store.EventStore;
+import com.github.yafna.events.store.NewEvent;
+import com.github.yafna.events.store.StoredEvent;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Loads events exported by {@link EventExporter} into an {@link EventStore}, retaining their ids and storage time.
+ * <p>
+ * Export is read sequentially, one record at a time. Consecutive events of an aggregate are appended
+ * with {@link EventStore#appendBatch(String, String, Long, List)} in batches of up to {@code batchSize},
+ * each batch expecting to continue exactly at the seq it had in the source store.
+ * Thus importing into a store which already holds some of these events fails instead of creating duplicates.
+ * <p>
+ * Usage: {@code EventImporter <source> <rootDir>[,<rootDir>...] <shardLevels>}
+ */
+@Slf4j
+public class EventImporter {
+    private final Function<byte[], StoredEvent> deserializer;
+    private final int batchSize;
+    /**
+     * Accepts records exported from a store predating checksums, which carry no trailer, see {@link Checksums}.
+     */
+    @Setter
+    private boolean acceptUnsealed;
+
+    /**
+     * @param deserializer deserializer of records, matching serializer of the exported store
+     * @param batchSize maximum number of events appended at once
+     */
+    public EventImporter(Function<byte[], StoredEvent> deserializer, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got [" + batchSize + "]");
+        }
+        this.deserializer = deserializer;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String... args) {
+        if (args.length != 3) {
+            System.err.println("Usage: EventImporter <source> <rootDir>[,<rootDir>...] <shardLevels>");
+            System.exit(1);
+        }
+        GsonFileEventStore target = new GsonFileEventStore(
+                Clock.systemUTC(), Roots.parse(args[1]), Layout.sharded(Integer.parseInt(args[2]))
+        );
+        long count = new EventImporter(GsonFileEventStore::parse, 1000).load(Paths.get(args[0]), target);
+        target.close();
+        System.out.println("Imported " + count + " events");
+    }
+
+    /**
+     * @return number of events imported
+     */
+    public long load(Path source, EventStore target) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != EventExporter.MAGIC) {
+                throw new IllegalStateException("Not an event export [" + String.valueOf(source) + "]");
+            }
+            long count = 0;
+            List<StoredEvent> batch = new ArrayList<>(batchSize);
+            for (int length = in.readInt(); length != EventExporter.END; length = in.readInt()) {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                StoredEvent event = deserializer.apply(Checksums.open(bytes, source, acceptUnsealed));
+                if (!batch.isEmpty() && (batch.size() == batchSize || !continues(batch.get(batch.size() - 1), event))) {
+                    count += flush(target, batch);
+                }
+                batch.add(event);
+            }
+            return count + flush(target, batch);
+        } catch (EOFException e) {
+            throw new IllegalStateException("Event export is truncated [" + String.valueOf(source) + "]", e);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(source) + "]", e);
+        }
+    }
+
+    private static boolean continues(StoredEvent last, StoredEvent event) {
+        return last.getAggregateId() != null
+                && last.getOrigin().equals(event.getOrigin())
+                && last.getAggregateId().equals(event.getAggregateId())
+                && Objects.equals(last.getSeq() + 1, event.getSeq());
+    }
+
+    private static int flush(EventStore target, List<StoredEvent> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        StoredEvent first = batch.get(0);
+        target.appendBatch(
+                first.getOrigin(), first.getAggregateId(), first.getSeq(),
+                batch.stream().map(NewEvent::of).collect(Collectors.toList())
+        );
+        int flushed = batch.size();
+        batch.clear();
+        return flushed;
+    }
+}
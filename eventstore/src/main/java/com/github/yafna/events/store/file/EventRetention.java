@@ -0,0 +1,130 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.store.file.ColdArchive.Record;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Background job that enforces {@link EventRetentionPolicy} of global events, so that origin directories
+ * holding timers, heartbeats and the like stay bounded in size and cheap to list.
+ * <p>
+ * Expired events are either deleted or packed into {@link ColdArchive}s of at most {@code ARCHIVE_SIZE} events.
+ * Archive is moved into place before event files are removed. If the job is interrupted in between,
+ * the next pass finds the files already present in the latest archive and only removes them.
+ * A single job should be enforcing policies of a store.
+ */
+@Slf4j
+public class EventRetention implements Closeable {
+    private static final int ARCHIVE_SIZE = 4096;
+
+    private final FileEventStore store;
+    private final Map<String, EventRetentionPolicy> policies = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-retention-%d").build()
+    );
+
+    public EventRetention(FileEventStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets retention policy of an origin, global events of origins without policy are kept forever.
+     */
+    public EventRetention policy(String origin, EventRetentionPolicy policy) {
+        policies.put(origin, policy);
+        return this;
+    }
+
+    /**
+     * Schedules retention passes with a given delay between them.
+     */
+    public void start(Duration period) {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                enforce();
+            } catch (RuntimeException e) {
+                log.error("Retention pass failed", e);
+            }
+        }, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single retention pass over all origins with a policy.
+     *
+     * @return number of events expired
+     */
+    public int enforce() {
+        return policies.entrySet().stream().mapToInt(e -> enforce(e.getKey(), e.getValue())).sum();
+    }
+
+    int enforce(String origin, EventRetentionPolicy policy) {
+        List<Path> files = store.globalEvents(origin);
+        int expired = policy.expired(files, store.clock.instant());
+        if (expired == 0) {
+            return 0;
+        }
+        List<Path> range = files.subList(0, expired);
+        if (policy.isArchive()) {
+            archive(store.coldDir(origin), range);
+        } else {
+            range.forEach(EventRetention::delete);
+        }
+        log.info("Expired {} global events of [{}] by {}", expired, origin, policy);
+        return expired;
+    }
+
+    private static void archive(Path dir, List<Path> files) {
+        List<ColdArchive> archives = ColdArchive.list(dir);
+        Set<String> archived = archives.isEmpty() ? Collections.emptySet() : archives.get(archives.size() - 1).read()
+                .stream().map(Record::getName).collect(Collectors.toSet());
+        for (List<Path> chunk : Lists.partition(files, ARCHIVE_SIZE)) {
+            List<Record> records = chunk.stream().filter(
+                    file -> !archived.contains(file.getFileName().toString())
+            ).map(
+                    file -> new Record(file.getFileName().toString(), read(file))
+            ).collect(Collectors.toList());
+            if (!records.isEmpty()) {
+                ColdArchive archive = ColdArchive.write(dir, records);
+                log.info("Archived {} global events into {}", records.size(), archive.getPath());
+            }
+            chunk.forEach(EventRetention::delete);
+        }
+    }
+
+    private static byte[] read(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to delete [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
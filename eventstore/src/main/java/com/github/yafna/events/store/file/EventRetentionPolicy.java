@@ -0,0 +1,93 @@
+package com.github.yafna.events.store.file;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Retention of global events of an origin, enforced by {@link EventRetention}. Events are expired oldest first,
+ * either once they are older than {@code maxAge} or once more than {@code maxCount} newer ones exist,
+ * whichever comes first when both are set, as in {@code maxAge(d).andMaxCount(n)}.
+ * Expired events are dropped, unless the policy is {@link #archived()}, in which case they are moved to
+ * the cold archive of the origin (see {@link ColdArchive}) and can still be read.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class EventRetentionPolicy {
+    private final Duration maxAge;
+    private final Integer maxCount;
+    private final boolean archive;
+
+    /**
+     * Keeps events stored within a given duration.
+     */
+    public static EventRetentionPolicy maxAge(Duration maxAge) {
+        if (maxAge.isNegative()) {
+            throw new IllegalArgumentException("Max age must not be negative, got [" + maxAge + "]");
+        }
+        return new EventRetentionPolicy(maxAge, null, false);
+    }
+
+    /**
+     * Keeps a given number of the latest events.
+     */
+    public static EventRetentionPolicy maxCount(int maxCount) {
+        if (maxCount < 0) {
+            throw new IllegalArgumentException("Max count must not be negative, got [" + maxCount + "]");
+        }
+        return new EventRetentionPolicy(null, maxCount, false);
+    }
+
+    /**
+     * Same policy also keeping no more than a given number of the latest events.
+     */
+    public EventRetentionPolicy andMaxCount(int maxCount) {
+        return new EventRetentionPolicy(maxAge, maxCount(maxCount).maxCount, archive);
+    }
+
+    /**
+     * Same policy also keeping only events stored within a given duration.
+     */
+    public EventRetentionPolicy andMaxAge(Duration maxAge) {
+        return new EventRetentionPolicy(maxAge(maxAge).maxAge, maxCount, archive);
+    }
+
+    /**
+     * Same policy moving expired events to the cold archive instead of dropping them.
+     */
+    public EventRetentionPolicy archived() {
+        return new EventRetentionPolicy(maxAge, maxCount, true);
+    }
+
+    /**
+     * Counts expired events.
+     *
+     * @param files global event files of the origin, ordered by name, hence by storage time
+     * @param now current time
+     * @return number of expired files at the start of the list
+     */
+    int expired(List<Path> files, Instant now) {
+        int expired = 0;
+        if (maxCount != null) {
+            expired = Math.max(0, files.size() - maxCount);
+        }
+        if (maxAge != null) {
+            Instant oldest = now.minus(maxAge);
+            while (expired < files.size()
+                    && FileEventStore.getTimeFromFileEvent(files.get(expired).getFileName()).isBefore(oldest)) {
+                expired++;
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public String toString() {
+        return "EventRetentionPolicy(maxAge=" + maxAge + ", maxCount=" + maxCount + ", archive=" + archive + ")";
+    }
+}
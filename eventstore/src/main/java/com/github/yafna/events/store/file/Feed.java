@@ -0,0 +1,183 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Per-origin log of stored events, partitioned by aggregate id hash, which consumer groups read from
+ * (see {@link FileConsumerGroup}). Partition logs live in hidden {@code .feed} directory of the origin
+ * in the first store root, one line per event: {@code seq aggregateId} for aggregate events and
+ * {@code =fileName} for global ones, which are spread over partitions by event id.
+ * <p>
+ * Lines are appended after the event has been written, under the aggregate directory lock, so events of
+ * an aggregate appear in their partition in seq order. Offsets of lines are byte positions in the log.
+ * Events written right before a crash may be missing from the feed.
+ */
+final class Feed {
+    static final String DIR = ".feed";
+    private static final String LOG = "{0,number,000}.log";
+    private static final HashFunction HASH = Hashing.murmur3_32();
+    private static final Pattern LOG_NAME = Pattern.compile("\\d+\\.log");
+    private static final int READ_SIZE = 64 * 1024;
+
+    private Feed() {
+    }
+
+    static int partition(String key, int partitions) {
+        return (HASH.hashString(key, StandardCharsets.UTF_8).asInt() & Integer.MAX_VALUE) % partitions;
+    }
+
+    static Path log(Path feedDir, int partition) {
+        return feedDir.resolve(MessageFormat.format(LOG, partition));
+    }
+
+    static boolean isLog(Path path) {
+        return LOG_NAME.matcher(path.getFileName().toString()).matches();
+    }
+
+    static String aggregateEntry(long seq, String aggregateId) {
+        return seq + " " + aggregateId;
+    }
+
+    static String globalEntry(String fileName) {
+        return "=" + fileName;
+    }
+
+    /**
+     * Appends entries with a single write, the caller must serialize appends to the same log.
+     */
+    static void append(Path log, List<String> entries) {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (String entry : entries) {
+            byte[] line = (entry + "\n").getBytes(StandardCharsets.UTF_8);
+            lines.write(line, 0, line.length);
+        }
+        try {
+            Files.createDirectories(log.getParent());
+            try (FileChannel channel = FileChannel.open(
+                    log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+            )) {
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append to [" + String.valueOf(log) + "]", e);
+        }
+    }
+
+    /**
+     * Offset following the last complete line of a log, 0 if there is no log.
+     */
+    static long end(Path log) {
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            for (long end = size; end > 0; end -= buffer.capacity()) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+            }
+            return 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(log) + "]", e);
+        }
+    }
+
+    /**
+     * Reads complete lines of a log from a given offset on. A line being appended is left for the next read.
+     *
+     * @param max maximum number of entries to read
+     */
+    static List<Entry> read(Path log, long offset, int max) {
+        List<Entry> entries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+            long position = offset;
+            while (entries.size() < max) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                byte[] bytes = buffer.array();
+                int start = 0;
+                for (int i = 0; i < read && entries.size() < max; i++) {
+                    if (bytes[i] == '\n') {
+                        String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                        entries.add(new Entry(line, position + i + 1));
+                        start = i + 1;
+                    }
+                }
+                if (start == 0) {
+                    // Incomplete line, or a single line longer than the buffer
+                    if (read == buffer.capacity()) {
+                        buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+                        continue;
+                    }
+                    break;
+                }
+                position += start;
+            }
+        } catch (NoSuchFileException e) {
+            return entries;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(log) + "]", e);
+        }
+        return entries;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Entry {
+        private final String line;
+        /**
+         * Offset of the next entry
+         */
+        private final long next;
+
+        boolean isGlobal() {
+            return line.startsWith("=");
+        }
+
+        String getFileName() {
+            return line.substring(1);
+        }
+
+        long getSeq() {
+            return Long.parseLong(line.substring(0, line.indexOf(' ')));
+        }
+
+        String getAggregateId() {
+            return line.substring(line.indexOf(' ') + 1);
+        }
+    }
+}
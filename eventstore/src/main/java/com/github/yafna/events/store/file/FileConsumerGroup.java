@@ -0,0 +1,300 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.Event;
+import com.github.yafna.events.store.ConsumerGroup;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Consumer group of {@link FileEventStore}, reading partitions of the origin {@link Feed}.
+ * Group state is kept in files next to the feed, so its members may be threads of one process as well as
+ * separate processes sharing the store:
+ * <ul>
+ * <li>{@code groups/<name>/members/<memberId>} - heartbeats, member is alive while its file has been touched
+ * within the lease duration</li>
+ * <li>{@code groups/<name>/leases/<partition>} - id of the member owning the partition, created exclusively</li>
+ * <li>{@code groups/<name>/offsets/<partition>} - offset of the next feed entry to consume</li>
+ * </ul>
+ * Partition {@code p} is assigned to the member at position {@code p mod n} among {@code n} live members sorted by id.
+ * A member takes up an assigned partition once its previous owner has released it or is no longer alive.
+ */
+@Slf4j
+public class FileConsumerGroup implements ConsumerGroup {
+    static final Duration DEFAULT_LEASE = Duration.ofSeconds(30);
+    private static final String GROUPS = "groups";
+
+    private final FileEventStore store;
+    private final String origin;
+    private final Path feedDir;
+    private final Path members;
+    private final Path leases;
+    private final Path offsets;
+    private final int partitions;
+    private final Duration lease;
+
+    /**
+     * @param lease time after which a member that has stopped polling is considered gone
+     */
+    public FileConsumerGroup(FileEventStore store, String origin, String name, Duration lease) {
+        this.partitions = store.getFeedPartitions();
+        if (partitions < 1) {
+            throw new IllegalStateException("Feed of [" + origin + "] is not enabled, see FileEventStore.setFeedPartitions");
+        }
+        this.store = store;
+        this.origin = origin;
+        this.feedDir = store.feedDir(origin);
+        Path dir = feedDir.resolve(GROUPS).resolve(name);
+        this.members = dir.resolve("members");
+        this.leases = dir.resolve("leases");
+        this.offsets = dir.resolve("offsets");
+        this.lease = lease;
+        Stream.of(members, leases, offsets).forEach(FileConsumerGroup::mkDirs);
+    }
+
+    @Override
+    public Member join(String memberId) {
+        FileMember member = new FileMember(memberId);
+        member.heartbeat();
+        log.info("Member [{}] joined group of [{}]", memberId, origin);
+        return member;
+    }
+
+    private class FileMember implements Member {
+        private final String id;
+        private final Set<Integer> owned = new TreeSet<>();
+
+        FileMember(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public synchronized int poll(int max, Consumer<Event> consumer) {
+            heartbeat();
+            List<String> live = liveMembers();
+            int rank = live.indexOf(id);
+            if (rank < 0) {
+                // Heartbeat is not seen as alive, e.g. its file has been removed or the lease is shorter than
+                // the timestamp resolution, so the partitions are left to the others until the next poll
+                log.warn("Member [{}] is not among live members of group of [{}], skipping poll", id, origin);
+            }
+            Set<Integer> assigned = rank < 0 ? Collections.emptySet() : IntStream.range(0, partitions).filter(
+                    p -> p % live.size() == rank
+            ).boxed().collect(Collectors.toSet());
+
+            owned.removeIf(p -> {
+                if (!assigned.contains(p)) {
+                    release(p);
+                    return true;
+                }
+                return false;
+            });
+            owned.removeIf(p -> !id.equals(owner(p)));
+            assigned.stream().filter(p -> !owned.contains(p)).filter(p -> acquire(p, live)).forEach(owned::add);
+
+            int consumed = 0;
+            for (int p : owned) {
+                consumed += consume(p, max, consumer);
+            }
+            return consumed;
+        }
+
+        @Override
+        public synchronized Set<Integer> partitions() {
+            return Collections.unmodifiableSet(new TreeSet<>(owned));
+        }
+
+        @Override
+        public synchronized void close() {
+            owned.forEach(this::release);
+            owned.clear();
+            try {
+                Files.deleteIfExists(members.resolve(id));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to leave [" + String.valueOf(members) + "]", e);
+            }
+            log.info("Member [{}] left group of [{}]", id, origin);
+        }
+
+        void heartbeat() {
+            Path file = members.resolve(id);
+            try {
+                if (!Files.exists(file)) {
+                    Files.write(file, new byte[0]);
+                }
+                Files.setLastModifiedTime(file, FileTime.from(store.clock.instant()));
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to update [" + String.valueOf(file) + "]", e);
+            }
+        }
+
+        private List<String> liveMembers() {
+            Instant expired = store.clock.instant().minus(lease);
+            return FileEventStore.list(members).stream().filter(file -> {
+                try {
+                    return Files.getLastModifiedTime(file).toInstant().isAfter(expired);
+                } catch (IOException e) {
+                    // Member has just left
+                    return false;
+                }
+            }).map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+
+        /**
+         * Creates lease of partition, taking over the one of a member which is gone.
+         */
+        private boolean acquire(int partition, List<String> live) {
+            Path file = leases.resolve(String.valueOf(partition));
+            try {
+                Files.write(file, id.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                log.info("Member [{}] took partition {} of [{}]", id, partition, origin);
+                return true;
+            } catch (FileAlreadyExistsException e) {
+                String owner = owner(partition);
+                if (owner == null || live.contains(owner)) {
+                    return false;
+                }
+                // Move the stale lease aside, so that only one of the members competing for it removes it
+                Path aside = leases.resolve(partition + "." + id);
+                try {
+                    Files.move(file, aside, StandardCopyOption.ATOMIC_MOVE);
+                    if (!owner.equals(new String(Files.readAllBytes(aside), StandardCharsets.UTF_8))) {
+                        // Lease has been taken over by someone else in the meantime
+                        Files.move(aside, file, StandardCopyOption.ATOMIC_MOVE);
+                        return false;
+                    }
+                    Files.delete(aside);
+                } catch (NoSuchFileException | FileAlreadyExistsException lost) {
+                    return false;
+                } catch (IOException io) {
+                    throw new IllegalStateException("Unable to take over [" + String.valueOf(file) + "]", io);
+                }
+                log.info("Member [{}] takes over partition {} of [{}] from [{}]", id, partition, origin, owner);
+                return acquire(partition, live);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create [" + String.valueOf(file) + "]", e);
+            }
+        }
+
+        private void release(int partition) {
+            Path file = leases.resolve(String.valueOf(partition));
+            if (id.equals(owner(partition))) {
+                try {
+                    Files.deleteIfExists(file);
+                    log.info("Member [{}] released partition {} of [{}]", id, partition, origin);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to release [" + String.valueOf(file) + "]", e);
+                }
+            }
+        }
+
+        /**
+         * Feeds events of a partition to the consumer. Contiguous entries of an aggregate are read with a single
+         * lookup. Offset is recorded once consumed, even if the consumer fails part way.
+         */
+        private int consume(int partition, int max, Consumer<Event> consumer) {
+            long offset = readOffset(partition);
+            List<Feed.Entry> entries = Feed.read(Feed.log(feedDir, partition), offset, max);
+            long consumed = offset;
+            int count = 0;
+            try {
+                for (int i = 0; i < entries.size(); ) {
+                    Feed.Entry first = entries.get(i);
+                    if (first.isGlobal()) {
+                        // Event expired by retention before it has been consumed is skipped
+                        store.readGlobal(origin, first.getFileName()).ifPresent(consumer);
+                        consumed = first.getNext();
+                        count++;
+                        i++;
+                        continue;
+                    }
+                    int end = i + 1;
+                    while (end < entries.size() && !entries.get(end).isGlobal()
+                            && entries.get(end).getAggregateId().equals(first.getAggregateId())
+                            && entries.get(end).getSeq() == first.getSeq() + end - i) {
+                        end++;
+                    }
+                    try (Stream<Event> events = store.getEvents(origin, first.getAggregateId(), first.getSeq() - 1)) {
+                        Iterator<Event> it = events.iterator();
+                        for (; i < end; i++) {
+                            if (!it.hasNext()) {
+                                throw new IllegalStateException(
+                                        "Event [" + origin + "/" + entries.get(i).getLine() + "] not found in store"
+                                );
+                            }
+                            consumer.accept(it.next());
+                            consumed = entries.get(i).getNext();
+                            count++;
+                        }
+                    }
+                }
+            } finally {
+                if (consumed != offset) {
+                    writeOffset(partition, consumed);
+                }
+            }
+            return count;
+        }
+    }
+
+    private String owner(int partition) {
+        try {
+            return new String(Files.readAllBytes(leases.resolve(String.valueOf(partition))), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read lease of partition " + partition + " in [" + leases + "]", e);
+        }
+    }
+
+    private long readOffset(int partition) {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(offsets.resolve(String.valueOf(partition))), StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read offset of partition " + partition + " in [" + offsets + "]", e);
+        }
+    }
+
+    /**
+     * Replaces offset file atomically, so that a crash leaves either the old offset or the new one.
+     */
+    private void writeOffset(int partition, long offset) {
+        Path file = offsets.resolve(String.valueOf(partition));
+        Path tmp = offsets.resolve(partition + RecoveryJournal.TMP_SUFFIX);
+        try {
+            Files.write(tmp, String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write [" + String.valueOf(file) + "]", e);
+        }
+    }
+
+    private static void mkDirs(Path dir) {
+        try {
+            Files.createDirectories(dir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create dir: [" + String.valueOf(dir) + "]", e);
+        }
+    }
+}
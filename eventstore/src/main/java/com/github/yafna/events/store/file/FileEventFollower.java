@@ -0,0 +1,138 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a read-only {@link FileEventStore} up to date with the writer sharing its directories, by tailing
+ * the per-origin {@link Feed} logs the writer appends to (see {@link FileEventStore#setFeedPartitions}).
+ * New entries make their aggregates known to the store and are passed to its subscriptions, so no directory
+ * holding events is ever listed.
+ * <p>
+ * Feed directories are watched with a {@link WatchService}, so that appends are picked up as soon as the
+ * file system reports them. Logs are also checked every {@code period}, which is when feeds of origins created
+ * after the follower has started are found.
+ * <p>
+ * Logs are tailed from where they ended when the store was opened, as earlier events are found on disk.
+ */
+@Slf4j
+public class FileEventFollower implements Closeable {
+    private static final int BATCH = 1024;
+
+    private final FileEventStore store;
+    private final Map<Path, Long> offsets = new ConcurrentHashMap<>();
+    private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+    private final WatchService watcher;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-follower-%d").build()
+    );
+
+    /**
+     * Records ends of the logs, must be called before the store loads its indexes.
+     */
+    FileEventFollower(FileEventStore store) {
+        this.store = store;
+        try {
+            this.watcher = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to watch feeds", e);
+        }
+        logs().forEach(log -> offsets.put(log, Feed.end(log)));
+    }
+
+    /**
+     * Follows the writer on a thread of its own, checking all logs at least every {@code period}.
+     */
+    public void start(Duration period) {
+        executor.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    WatchKey key = watcher.poll(period.toMillis(), TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                    poll();
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Following feeds failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads entries appended to the logs since the last poll.
+     *
+     * @return number of entries read
+     */
+    public synchronized int poll() {
+        return logs().mapToInt(this::tail).sum();
+    }
+
+    private int tail(Path log) {
+        String origin = log.getParent().getParent().getFileName().toString();
+        int count = 0;
+        List<Feed.Entry> entries;
+        do {
+            long offset = offsets.getOrDefault(log, 0L);
+            entries = Feed.read(log, offset, BATCH);
+            for (Feed.Entry entry : entries) {
+                store.followed(origin, entry);
+                offsets.put(log, entry.getNext());
+            }
+            count += entries.size();
+        } while (entries.size() == BATCH);
+        return count;
+    }
+
+    /**
+     * Lists feed logs of all origins, watching feed directories not watched so far.
+     */
+    private Stream<Path> logs() {
+        List<Path> dirs = store.originDirectories().map(dir -> store.feedDir(dir.getFileName().toString())).distinct()
+                .filter(Files::isDirectory).collect(Collectors.toList());
+        dirs.stream().filter(dir -> !watched.contains(dir)).forEach(this::watch);
+        return dirs.stream().flatMap(dir -> FileEventStore.list(dir).stream()).filter(Feed::isLog);
+    }
+
+    private void watch(Path dir) {
+        try {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            watched.add(dir);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to watch [" + String.valueOf(dir) + "]", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            log.warn("Unable to close watch service: {}", e.getMessage());
+        }
+    }
+}
@@ -1,45 +1,248 @@
 package com.github.yafna.events.store.file;
 
 import com.github.yafna.events.Event;
+import com.github.yafna.events.store.ConcurrentAppendException;
+import com.github.yafna.events.store.ConsumerGroup;
 import com.github.yafna.events.store.EventStore;
+import com.github.yafna.events.store.IdGenerator;
+import com.github.yafna.events.store.NewEvent;
 import com.github.yafna.events.store.StoredEvent;
+import com.github.yafna.events.store.TimeOrderedIdGenerator;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
-import lombok.SneakyThrows;
+import lombok.Getter;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.MessageFormat;
 import java.text.ParseException;
 import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.stream.Collector;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 @Slf4j
-@AllArgsConstructor
-public class FileEventStore implements EventStore {
-    private static final Comparator<Path> BY_NAME = Comparator.comparing(Path::toString);
+public class FileEventStore implements EventStore, Closeable {
+    private static final Comparator<Path> BY_NAME = Comparator.comparing(path -> path.getFileName().toString());
     private static final Predicate<Path> NOT_DIRECTORY = path -> !Files.isDirectory(path);
-    private static final String NAME_PATTERN_TIME = "{0}={1}={2}.evt";
+    private static final String SUFFIX = ".evt";
+    static final Predicate<Path> IS_EVENT = path -> path.getFileName().toString().endsWith(SUFFIX);
+    static final Predicate<Path> IS_VISIBLE_DIRECTORY = path -> Files.isDirectory(path)
+            && !path.getFileName().toString().startsWith(".");
+    private static final String NAME_PATTERN_TIME = "{0}={1}={2}" + SUFFIX;
     private static final String PATTERN_SEQ = "{0,number,00000000}";
-    private static final String NAME_PATTERN_SEQ = PATTERN_SEQ + "={1}={2}.evt";
-    private static final Collector<Path, ?, Optional<Path>> TO_LAST = Collectors.maxBy(Comparator.comparing(Path::toString));
+    private static final String NAME_PATTERN_SEQ = PATTERN_SEQ + "={1}={2}" + SUFFIX;
+    private static final int LOCK_STRIPES = 1024;
+    private static final int DEFAULT_DEDUP_WINDOW = 64 * 1024;
+    private static final Pattern SEQ_NAME = Pattern.compile("\\d+=.*");
+    private static final Duration DEFAULT_CHECKPOINT_INTERVAL = Duration.ofSeconds(10);
+    /**
+     * Forces journals and runs checkpoints of all writer stores, see {@link #maintain()}.
+     */
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-store-maintenance-%d").build()
+    );
 
     protected Clock clock;
-    private File rootDir;
+    private Roots roots;
+    private Layout layout;
     private Function<StoredEvent, byte[]> serializer;
     private Function<byte[], StoredEvent> deserializer;
+    private Map<Path, RecoveryJournal> journals;
+    /**
+     * Held shared by writes of journalled files and exclusively by checkpoints, see {@link #journalled(Supplier)}.
+     */
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    /**
+     * Interval of checkpoints run in the background, which bounds both the size of the journal
+     * and the number of files validated by recovery after a crash.
+     */
+    @Setter
+    private Duration checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+    private ScheduledFuture<?> maintenance;
+    /**
+     * Migration mode accepting records written before checksums were introduced, which carry no trailer.
+     * Reading an unsealed record fails if not set, see {@link Checksums}.
+     */
+    @Setter
+    private boolean acceptUnsealed;
+    private final KnownAggregates known = new KnownAggregates();
+    @Setter
+    private IdGenerator idGenerator = new TimeOrderedIdGenerator();
+    /**
+     * Replay mode reading events ahead of the consumer, events are read on consumer's thread if not set.
+     */
+    @Setter
+    private ReadAhead readAhead;
+    /**
+     * Parser of records for flyweight replay, events are fully deserialized if not set.
+     */
+    @Setter(AccessLevel.PACKAGE)
+    private JsonEventParser parser;
+    /**
+     * Number of partitions of the per-origin {@link Feed} consumer groups read from, feed is not written if 0.
+     * Must not change once events have been written to the feed.
+     */
+    @Getter
+    @Setter
+    private int feedPartitions;
+    private final Striped<Lock> locks = Striped.lazyWeakLock(LOCK_STRIPES);
+    private final Striped<Lock> feedLocks = Striped.lazyWeakLock(LOCK_STRIPES);
+    private final Striped<Lock> dedupLocks = Striped.lazyWeakLock(LOCK_STRIPES);
+    private DedupIndex dedup = new DedupIndex(DEFAULT_DEDUP_WINDOW);
+    private final SubscriptionIndex subscriptions = new SubscriptionIndex();
+    /**
+     * Follower of the writer, present in read-only stores only.
+     */
+    @Getter
+    private FileEventFollower follower;
+
+    public FileEventStore(
+            Clock clock, File rootDir, Function<StoredEvent, byte[]> serializer, Function<byte[], StoredEvent> deserializer
+    ) {
+        this(clock, rootDir, Layout.FLAT, serializer, deserializer);
+    }
+
+    /**
+     * Creates the store and validates files written since the last clean shutdown, see {@link #recover()}.
+     *
+     * @param layout placement of aggregate directories, must match the one the store was created with
+     * (see {@link LayoutMigration})
+     */
+    public FileEventStore(
+            Clock clock, File rootDir, Layout layout,
+            Function<StoredEvent, byte[]> serializer, Function<byte[], StoredEvent> deserializer
+    ) {
+        this(clock, Collections.singletonList(rootDir), layout, serializer, deserializer);
+    }
+
+    /**
+     * Creates the store striped across several root directories, see {@link Roots}.
+     *
+     * @param rootDirs root directories, their order must not change once the store has been created
+     * (adding a new root to the end requires {@link LayoutMigration})
+     */
+    public FileEventStore(
+            Clock clock, List<File> rootDirs, Layout layout,
+            Function<StoredEvent, byte[]> serializer, Function<byte[], StoredEvent> deserializer
+    ) {
+        this(clock, rootDirs, layout, serializer, deserializer, false);
+    }
+
+    /**
+     * Creates the store, either as the writer of its directories or as a read-only follower of the writer
+     * sharing them, see {@link FileEventFollower}. A read-only store does not run recovery, as files being
+     * written by the writer would look torn, and rejects writes with {@link UnsupportedOperationException}.
+     */
+    protected FileEventStore(
+            Clock clock, List<File> rootDirs, Layout layout,
+            Function<StoredEvent, byte[]> serializer, Function<byte[], StoredEvent> deserializer, boolean readOnly
+    ) {
+        this.clock = clock;
+        this.roots = new Roots(rootDirs.stream().map(File::toPath).collect(Collectors.toList()));
+        this.layout = layout;
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.journals = new LinkedHashMap<>();
+        if (readOnly) {
+            this.follower = new FileEventFollower(this);
+        } else {
+            roots.all().forEach(root -> journals.put(root, new RecoveryJournal(root)));
+            recover();
+            maintenance = MAINTENANCE.scheduleWithFixedDelay(
+                    this::maintain, RecoveryJournal.SYNC_MILLIS, RecoveryJournal.SYNC_MILLIS, TimeUnit.MILLISECONDS
+            );
+        }
+        originDirectories().collect(Collectors.groupingBy(dir -> dir.getFileName().toString())).forEach(
+                (origin, dirs) -> known.load(origin, dirs.stream().flatMap(this::aggregateDirectories).map(
+                        dir -> dir.getFileName().toString()
+                ).collect(Collectors.toList()))
+        );
+    }
+
+    /**
+     * Validates checksums of files written since the last clean shutdown and moves torn ones to quarantine.
+     * Only the files recorded in the journal are examined, so the cost does not depend on the size of the store.
+     * Manifests of aggregates written to are rebuilt, as they may be missing entries or refer to quarantined files.
+     *
+     * @return files moved to quarantine
+     */
+    public List<Path> recover() {
+        return journals.values().stream().flatMap(
+                journal -> journal.recover(FileEventStore::isIntact, FileEventStore::rebuildManifests).stream()
+        ).collect(Collectors.toList());
+    }
+
+    private static void rebuildManifests(List<Path> written) {
+        written.stream().filter(
+                file -> SEQ_NAME.matcher(file.getFileName().toString()).matches() || EventArchive.of(file).isPresent()
+        ).map(Path::getParent).distinct().filter(Files::isDirectory).forEach(Manifest::rebuild);
+    }
+
+    /**
+     * Forces files written so far to disk, so that they do not need to be validated by the next recovery.
+     */
+    public void checkpoint() {
+        exclusive(() -> journals.values().forEach(RecoveryJournal::checkpoint));
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    /**
+     * Forces journal entries left unforced once writes go quiet, and runs a checkpoint once it is due.
+     */
+    private void maintain() {
+        try {
+            journals.values().forEach(RecoveryJournal::syncIdle);
+            if (System.currentTimeMillis() - lastCheckpoint >= checkpointInterval.toMillis()) {
+                checkpoint();
+            }
+        } catch (RuntimeException e) {
+            log.error("Journal maintenance failed", e);
+        }
+    }
+
+    /**
+     * Forces written files to disk and marks the store as cleanly shut down, stops following if read-only.
+     */
+    @Override
+    public void close() {
+        Optional.ofNullable(maintenance).ifPresent(task -> task.cancel(false));
+        exclusive(() -> journals.values().forEach(RecoveryJournal::close));
+        Optional.ofNullable(follower).ifPresent(FileEventFollower::close);
+    }
 
     /**
      * Retrieves events for a given aggragate.
@@ -51,25 +254,249 @@ public class FileEventStore implements EventStore {
     @Override
     public Stream<Event> getEvents(String origin, String aggregateId, Long fromSeq) {
         Predicate<Path> filter = Optional.ofNullable(fromSeq).map(FileEventStore::isAfter).orElse(f -> true);
-        Path path = getDirectory(origin, Optional.ofNullable(aggregateId));
-        return exists(path).map(
-                p -> readEvents(p, filter).sequential()
-        ).orElseGet(Stream::empty);
+        if (aggregateId == null) {
+            return readEvents(origin, filter).sequential();
+        }
+        if (!known.mightExist(origin, aggregateId)) {
+            return Stream.empty();
+        }
+        Path path = getDirectory(origin, aggregateId);
+        return exists(path).map(p -> readAggregate(p, filter, fromSeq).sequential()).orElseGet(Stream::empty);
     }
 
+    /**
+     * Looks events up in an in-memory index (see {@link SubscriptionIndex}), which is built by reading the events
+     * of the origin stored after {@code since} on its first subscription. Global events are read starting with
+     * the file names of that second, aggregate events are all read. Callbacks are invoked on the writing thread
+     * once the event has been written or, in a read-only store, on the thread of its {@link FileEventFollower}.
+     */
     @Override
     public List<Event> subscribe(String origin, String type, Instant since, Consumer<Event> callback) {
-        throw new UnsupportedOperationException();
+        return subscriptions.subscribe(origin, type, since, callback, (after, index) -> {
+            String second = formatTime(after.truncatedTo(ChronoUnit.SECONDS));
+            String from = second.substring(0, second.length() - 1);
+            try (Stream<Event> events = readEvents(origin, f -> f.getFileName().toString().compareTo(from) >= 0)) {
+                events.forEach(event -> index.accept(event, location(event)));
+            }
+            originDirectories().filter(dir -> dir.getFileName().toString().equals(origin)).flatMap(
+                    this::aggregateDirectories
+            ).forEach(dir -> replay(
+                    origin, dir.getFileName().toString(), null, event -> index.accept(event, location(event))
+            ));
+        }, location -> locate(origin, location));
+    }
+
+    /**
+     * Indexes a written event and notifies subscribers, outside of any directory lock.
+     */
+    private void publish(Event event) {
+        subscriptions.add(event, location(event)).forEach(callback -> callback.accept(event));
+    }
+
+    /**
+     * Catches up with an event written by another process, as read from its feed by {@link FileEventFollower}.
+     */
+    void followed(String origin, Feed.Entry entry) {
+        if (!entry.isGlobal()) {
+            known.add(origin, entry.getAggregateId());
+        }
+        if (subscriptions.isIndexed(origin)) {
+            locate(origin, entry.getLine()).ifPresent(this::publish);
+        }
+    }
+
+    private static String location(Event event) {
+        return event.getAggregateId() == null ? Feed.globalEntry(globalName(event)) : Feed.aggregateEntry(
+                event.getSeq(), event.getAggregateId()
+        );
+    }
+
+    /**
+     * Reads global events of an origin, spread across all roots. File names start with storage time,
+     * so sorting by name merges them in time order. Events moved to the cold archive by {@link EventRetention}
+     * come first. Origin directories are listed before the archive, so that events archived in between
+     * are read once.
+     *
+     * @param filter accepts all names following any name it accepts, so archives which last event it rejects
+     *        are not opened
+     */
+    private Stream<Event> readEvents(String origin, Predicate<Path> filter) {
+        List<Path> files = globalEvents(origin).stream().filter(filter).collect(Collectors.toList());
+        Set<String> names = files.stream().map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+        List<ColdArchive> archives = ColdArchive.list(coldDir(origin)).stream().filter(
+                archive -> filter.test(Paths.get(archive.getLast()))
+        ).collect(Collectors.toList());
+        Stream<Event> cold = ColdArchive.read(archives).filter(
+                record -> !names.contains(record.getName()) && filter.test(Paths.get(record.getName()))
+        ).map(record -> deserializer.apply(
+                Checksums.open(record.getBytes(), Paths.get(record.getName()), acceptUnsealed)
+        ));
+        Stream<Optional<Event>> hot;
+        if (readAhead == null) {
+            hot = files.stream().map(path -> readGlobal(origin, path));
+        } else {
+            hot = readAhead.apply(files.stream().map(
+                    path -> (Supplier<Optional<Event>>) () -> readGlobal(origin, path)
+            ));
+        }
+        return Stream.concat(cold, hot.filter(Optional::isPresent).map(Optional::get));
+    }
+
+    private Stream<Path> globalFiles(String origin) {
+        return roots.all().stream().map(root -> root.resolve(origin)).filter(Files::isDirectory).flatMap(
+                dir -> list(dir).stream()
+        ).filter(NOT_DIRECTORY).filter(IS_EVENT);
+    }
+
+    /**
+     * Lists global event files of an origin in storage time order.
+     */
+    List<Path> globalEvents(String origin) {
+        return globalFiles(origin).sorted(BY_NAME).collect(Collectors.toList());
+    }
+
+    Path coldDir(String origin) {
+        return roots.all().get(0).resolve(origin).resolve(ColdArchive.DIR);
+    }
+
+    /**
+     * Reads aggregate events from both standalone event files and archives, looking them up in the manifest
+     * (see {@link Manifest}), so that only the files holding requested events are touched.
+     */
+    private Stream<Event> readAggregate(Path dir, Predicate<Path> filter, Long fromSeq) {
+        Stream<Segment> segments = segments(dir, filter, fromSeq);
+        if (readAhead == null) {
+            return segments.flatMap(this::readSegment);
+        }
+        return readAhead.apply(segments.map(
+                segment -> (Supplier<List<Event>>) () -> readSegment(segment).collect(Collectors.toList())
+        )).flatMap(List::stream);
     }
 
-    @SneakyThrows(IOException.class)
-    private Stream<Event> readEvents(Path subdir, Predicate<Path> filter) {
-        return Files.list(subdir).filter(NOT_DIRECTORY).filter(filter).sorted(BY_NAME).map(this::readEvent);
+    private Stream<Segment> segments(Path dir, Predicate<Path> filter, Long fromSeq) {
+        long first = Optional.ofNullable(fromSeq).map(seq -> seq + 1).orElse(0L);
+        return Manifest.read(dir, first).flatMap(
+                names -> lookup(dir, first, names)
+        ).map(List::stream).orElseGet(() -> listSegments(dir, filter, fromSeq));
     }
 
-    @SneakyThrows(IOException.class)
-    private Event readEvent(Path path) {
-        return deserializer.apply(Files.readAllBytes(path));
+    private Stream<Event> readSegment(Segment segment) {
+        return segment.getRecords().get().map(
+                bytes -> deserializer.apply(Checksums.open(bytes, segment.getSource(), acceptUnsealed))
+        );
+    }
+
+    /**
+     * Replays aggregate through a single reusable event view, see {@link ReplayEvent}, if the store has been given
+     * a parser for its records. Events are decoded from the record bytes only as far as the consumer asks for them.
+     */
+    @Override
+    public void replay(String origin, String aggregateId, Long fromSeq, Consumer<? super Event> consumer) {
+        if (parser == null || aggregateId == null) {
+            EventStore.super.replay(origin, aggregateId, fromSeq, consumer);
+            return;
+        }
+        if (!known.mightExist(origin, aggregateId)) {
+            return;
+        }
+        Optional<Path> dir = exists(getDirectory(origin, aggregateId));
+        if (!dir.isPresent()) {
+            return;
+        }
+        Stream<Segment> segments = segments(
+                dir.get(), Optional.ofNullable(fromSeq).map(FileEventStore::isAfter).orElse(f -> true), fromSeq
+        );
+        if (readAhead != null) {
+            segments = readAhead.apply(segments.map(segment -> (Supplier<Segment>) () -> {
+                List<byte[]> records = segment.getRecords().get().collect(Collectors.toList());
+                return new Segment(segment.getFirst(), segment.getSource(), records::stream);
+            }));
+        }
+        ReplayEvent view = new ReplayEvent();
+        JsonEventParser.Dictionary dictionary = new JsonEventParser.Dictionary();
+        try (Stream<Segment> all = segments) {
+            for (Iterator<Segment> it = all.iterator(); it.hasNext(); ) {
+                Segment segment = it.next();
+                for (Iterator<byte[]> records = segment.getRecords().get().iterator(); records.hasNext(); ) {
+                    byte[] bytes = records.next();
+                    parser.parse(bytes, Checksums.length(bytes, segment.getSource(), acceptUnsealed), dictionary, view);
+                    consumer.accept(view);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turns file names from manifest into segments, unless they do not match the seq numbers,
+     * which happens if the manifest is being rebuilt.
+     */
+    private Optional<List<Segment>> lookup(Path dir, long first, List<String> names) {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < names.size(); i++) {
+            long seq = first + i;
+            Path file = dir.resolve(names.get(i));
+            Optional<EventArchive> archive = EventArchive.of(file);
+            if (archive.isPresent()) {
+                if (!archive.get().covers(seq)) {
+                    return Optional.empty();
+                }
+                // The rest of the archive is read at once
+                while (i + 1 < names.size() && names.get(i + 1).equals(names.get(i))) {
+                    i++;
+                }
+                segments.add(new Segment(seq, file, () -> readArchive(archive.get(), seq - 1)));
+            } else if (IS_EVENT.test(file) && getSeqFromFileEvent(file.getFileName()) == seq) {
+                segments.add(new Segment(seq, file, () -> Stream.of(readRecord(file, seq))));
+            } else {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(segments);
+    }
+
+    /**
+     * Finds aggregate events by listing its directory, for aggregates which have no manifest yet.
+     * Standalone files already covered by an archive are the leftovers of a compaction in progress and are skipped.
+     */
+    private Stream<Segment> listSegments(Path dir, Predicate<Path> filter, Long fromSeq) {
+        long after = Optional.ofNullable(fromSeq).orElse(-1L);
+        List<Path> files = list(dir);
+        List<EventArchive> archives = files.stream().map(EventArchive::of).filter(Optional::isPresent).map(
+                Optional::get
+        ).filter(a -> a.getLast() > after).collect(Collectors.toList());
+
+        Stream<Segment> loose = files.stream().filter(IS_EVENT).filter(filter).map(file -> {
+            long seq = getSeqFromFileEvent(file.getFileName());
+            return new Segment(seq, file, () -> Stream.of(readRecord(file, seq)));
+        }).filter(
+                segment -> archives.stream().noneMatch(a -> a.covers(segment.getFirst()))
+        );
+        Stream<Segment> packed = archives.stream().map(
+                a -> new Segment(Math.max(a.getFirst(), after + 1), a.getPath(), () -> readArchive(a, after))
+        );
+        return Stream.concat(loose, packed).sorted(Comparator.comparingLong(Segment::getFirst));
+    }
+
+    /**
+     * Reads sealed record of a standalone event file. If the file has been removed by compaction
+     * after the directory was listed, the event is looked up in the archive that replaced it.
+     */
+    private byte[] readRecord(Path path, long seq) {
+        try {
+            return Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return list(path.getParent()).stream().map(EventArchive::of).filter(Optional::isPresent).map(
+                    Optional::get
+            ).filter(a -> a.covers(seq)).findFirst().flatMap(
+                    a -> readArchive(a, seq - 1).findFirst()
+            ).orElseThrow(() -> new IllegalStateException("Event disappeared: [" + String.valueOf(path) + "]"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(path) + "]", e);
+        }
+    }
+
+    private static Stream<byte[]> readArchive(EventArchive archive, long afterSeq) {
+        return archive.read(afterSeq).stream().map(EventArchive.Record::getBytes);
     }
 
     @Override
@@ -100,7 +527,113 @@ public class FileEventStore implements EventStore {
         return fn(this::create).then(this::write);
     }
 
+    /**
+     * Looks the event id up in a bounded in-memory index of the latest ids written this way (see {@link DedupIndex}),
+     * so that a retry returns the stored event without scanning history. Ids which have fallen out of the window,
+     * or were written before the store was opened, are not detected.
+     */
+    @Override
+    public Persister persistOnce(String eventId, String causeId, String corrId, String aggregateId) {
+        return (origin, type, payload) -> {
+            long key = DedupIndex.key(origin, eventId);
+            Lock lock = dedupLocks.get(key);
+            lock.lock();
+            try {
+                Optional<Event> stored = Optional.ofNullable(dedup.get(key)).flatMap(
+                        location -> locate(origin, location)
+                ).filter(event -> eventId.equals(event.getId()));
+                if (stored.isPresent()) {
+                    log.debug("Event [{}/{}] has been stored already", origin, eventId);
+                    return stored.get();
+                }
+                StoredEvent event = create(origin, type, payload);
+                event.setId(eventId);
+                addCorrelation(causeId, corrId).accept(event);
+                event.setAggregateId(aggregateId);
+                write(event);
+                dedup.put(key, location(event));
+                return event;
+            } finally {
+                lock.unlock();
+            }
+        };
+    }
+
+    /**
+     * Sets number of the latest ids remembered by {@link #persistOnce}, forgetting those remembered so far.
+     */
+    public void setDedupWindow(int window) {
+        this.dedup = new DedupIndex(window);
+    }
+
+    /**
+     * Reads event at a given {@link Feed} entry.
+     */
+    private Optional<Event> locate(String origin, String location) {
+        Feed.Entry entry = new Feed.Entry(location, 0);
+        if (entry.isGlobal()) {
+            return readGlobal(origin, entry.getFileName());
+        }
+        try (Stream<Event> events = getEvents(origin, entry.getAggregateId(), entry.getSeq() - 1)) {
+            return events.findFirst();
+        }
+    }
+
+    /**
+     * Stores the events in a single archive file, moved into place atomically (see {@link EventArchive}).
+     */
+    @Override
+    public List<Event> appendBatch(String origin, String aggregateId, Long expectedSeq, List<NewEvent> events) {
+        List<StoredEvent> created = events.stream().map(e -> {
+            StoredEvent event = create(origin, e.getType(), e.getPayload());
+            Optional.ofNullable(e.getId()).ifPresent(event::setId);
+            Optional.ofNullable(e.getStored()).ifPresent(event::setStored);
+            addCorrelation(e.getCauseId(), e.getCorrId()).accept(event);
+            event.setAggregateId(aggregateId);
+            return event;
+        }).collect(Collectors.toList());
+        if (aggregateId == null) {
+            return created.stream().map(this::write).collect(Collectors.toList());
+        } else if (created.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        Path directory = getDirectory(origin, aggregateId);
+        List<Event> stored = locked(directory, () -> {
+            Path path = createDirectory(origin, aggregateId, directory);
+            long next = Manifest.size(path);
+            if (expectedSeq != null && expectedSeq != next) {
+                throw new ConcurrentAppendException(MessageFormat.format(
+                        "Aggregate [{0}/{1}] continues with seq {2,number,#}, expected {3,number,#}", origin, aggregateId, next, expectedSeq
+                ));
+            }
+            if (created.size() == 1) {
+                return Collections.singletonList(write(created.get(0), directory, Optional.of(aggregateId)));
+            }
+            List<EventArchive.Record> records = new ArrayList<>(created.size());
+            for (StoredEvent event : created) {
+                event.setSeq(next++);
+                records.add(new EventArchive.Record(event.getSeq(), Checksums.seal(serializer.apply(event))));
+            }
+            EventArchive archive = journalled(() -> {
+                EventArchive written = writeArchive(path, records);
+                Manifest.append(path, Collections.nCopies(records.size(), written.getPath().getFileName().toString()));
+                return written;
+            });
+            feed(origin, aggregateId, records.stream().map(
+                    record -> Feed.aggregateEntry(record.getSeq(), aggregateId)
+            ).collect(Collectors.toList()));
+            log.info("Writing:\n    {}", archive.getPath());
+            return new ArrayList<>(created);
+        });
+        stored.forEach(this::publish);
+        return stored;
+    }
+
     private StoredEvent create(String origin, String type, String payload) {
+        if (follower != null) {
+            throw new UnsupportedOperationException("Store is read-only, events are written by the store it follows");
+        }
         StoredEvent event = new StoredEvent();
         event.setId(generateId());
         event.setOrigin(origin);
@@ -111,57 +644,231 @@ public class FileEventStore implements EventStore {
     }
 
     private StoredEvent write(StoredEvent event) {
-        String dir = event.getOrigin();
         Optional<String> aggregateId = Optional.ofNullable(event.getAggregateId());
-        Path directory = getDirectory(dir, aggregateId);
-        Path path = exists(directory).orElseGet(() -> mkDirs(directory));
+        Path directory = aggregateId.map(id -> getDirectory(event.getOrigin(), id)).orElseGet(
+                () -> roots.of(event.getStored()).resolve(event.getOrigin())
+        );
+        StoredEvent stored = locked(directory, () -> write(event, directory, aggregateId));
+        publish(stored);
+        return stored;
+    }
+
+    private StoredEvent write(StoredEvent event, Path directory, Optional<String> aggregateId) {
+        Path path = aggregateId.map(id -> createDirectory(event.getOrigin(), id, directory)).orElseGet(
+                () -> exists(directory).orElseGet(() -> mkDirs(directory))
+        );
 
         String name = aggregateId.map(aid -> {
-            Long seq = lastEvent(path).map(this::getSeqFromFileEvent).orElse(0L);
+            long seq = Manifest.size(path);
             event.setSeq(seq);
             return MessageFormat.format(NAME_PATTERN_SEQ, seq, event.getId(), event.getType());
-        }).orElseGet(() -> MessageFormat.format(
-                NAME_PATTERN_TIME, formatTime(event.getStored()), event.getId(), event.getType()
-        ));
+        }).orElseGet(() -> globalName(event));
         Path file = path.resolve(name);
         log.info("Writing:\n    {}", file.toString());
+        byte[] bytes = Checksums.seal(serializer.apply(event));
+        journalled(() -> {
+            journal(file).append(file);
+            try {
+                Files.write(file, bytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write [" + String.valueOf(file) + "]", e);
+            }
+            aggregateId.ifPresent(id -> Manifest.append(path, Collections.singletonList(name)));
+            return file;
+        });
+        if (aggregateId.isPresent()) {
+            feed(event.getOrigin(), aggregateId.get(), Collections.singletonList(
+                    Feed.aggregateEntry(event.getSeq(), aggregateId.get())
+            ));
+        } else {
+            feed(event.getOrigin(), event.getId(), Collections.singletonList(Feed.globalEntry(name)));
+        }
+        return event;
+    }
+
+    /**
+     * Appends entries to the feed partition of a given key, if feed is enabled.
+     */
+    private void feed(String origin, String key, List<String> entries) {
+        if (feedPartitions < 1) {
+            return;
+        }
+        Path log = Feed.log(feedDir(origin), Feed.partition(key, feedPartitions));
+        Lock lock = feedLocks.get(log);
+        lock.lock();
         try {
-            Files.write(file, serializer.apply(event));
-            return event;
-        } catch (IOException e) {
-            throw new IllegalStateException("Unable to write [" + String.valueOf(file) + "]");
+            Feed.append(log, entries);
+        } finally {
+            lock.unlock();
         }
     }
 
-    private Path getDirectory(String dir, Optional<String> aggregateId) {
-        Path aggregateDir = path(dir);
-        return aggregateId.map(aggregateDir::resolve).orElse(aggregateDir);
+    /**
+     * Returns a consumer group reading the feed of an origin, which must be enabled with {@link #setFeedPartitions}.
+     */
+    @Override
+    public ConsumerGroup group(String origin, String name) {
+        return new FileConsumerGroup(this, origin, name, FileConsumerGroup.DEFAULT_LEASE);
     }
 
-    private Path path(String dir) {
-        return new File(rootDir, dir).toPath();
+    Path feedDir(String origin) {
+        return roots.all().get(0).resolve(origin).resolve(Feed.DIR);
     }
 
-    private static Optional<Path> lastEvent(Path dir) {
+    /**
+     * Reads a global event by its file name.
+     */
+    Optional<Event> readGlobal(String origin, String fileName) {
+        Path root = roots.of(getTimeFromFileEvent(Paths.get(fileName)));
+        return readGlobal(origin, root.resolve(origin).resolve(fileName));
+    }
+
+    /**
+     * Reads a global event file. If the file has been expired by {@link EventRetention} in the meantime,
+     * the event is looked up in the only cold archive which range may hold it, it is missing if it has been dropped.
+     */
+    private Optional<Event> readGlobal(String origin, Path path) {
         try {
-            return Files.list(dir).map(Path::getFileName).collect(TO_LAST);
+            return Optional.of(deserializer.apply(Checksums.open(Files.readAllBytes(path), path, acceptUnsealed)));
+        } catch (NoSuchFileException e) {
+            String name = path.getFileName().toString();
+            return ColdArchive.list(coldDir(origin)).stream().filter(a -> a.getLast().compareTo(name) >= 0).findFirst(
+            ).flatMap(a -> a.find(name)).map(
+                    record -> deserializer.apply(Checksums.open(record.getBytes(), path, acceptUnsealed))
+            );
         } catch (IOException e) {
-            throw new IllegalStateException("Unable to list [" + String.valueOf(dir) + "]");
+            throw new IllegalStateException("Unable to read [" + String.valueOf(path) + "]", e);
+        }
+    }
+
+    /**
+     * Serializes writers of the same directory, so that seq numbers are allocated without gaps and duplicates.
+     */
+    private <T> T locked(Path directory, Supplier<T> action) {
+        Lock lock = locks.get(directory);
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
         }
     }
 
-    private Long getSeqFromFileEvent(Path p) {
+    /**
+     * Makes sure aggregate directory exists, probing the file system only for aggregates that might be known.
+     */
+    private Path createDirectory(String origin, String aggregateId, Path directory) {
+        if (known.add(origin, aggregateId)) {
+            return mkDirs(directory);
+        }
+        return exists(directory).orElseGet(() -> mkDirs(directory));
+    }
+
+    private Path getDirectory(String origin, String aggregateId) {
+        return layout.resolve(roots.of(aggregateId).resolve(origin), aggregateId);
+    }
+
+    private RecoveryJournal journal(Path file) {
+        return journals.get(roots.containing(file));
+    }
+
+    static Long getSeqFromFileEvent(Path p) {
         String name = p.toString();
         try {
             Object[] parsed = new MessageFormat(NAME_PATTERN_SEQ).parse(name);
-            return ((Number) parsed[0]).longValue() + 1;
+            return ((Number) parsed[0]).longValue();
         } catch (ParseException e) {
             throw new IllegalArgumentException("Error parsing file path: " + name, e);
         }
     }
 
-    private static String generateId() {
-        return UUID.randomUUID().toString();
+    /**
+     * Lists directories of all aggregates present in store.
+     */
+    Stream<Path> aggregateDirectories() {
+        return originDirectories().flatMap(this::aggregateDirectories);
+    }
+
+    Stream<Path> aggregateDirectories(Path originDir) {
+        return layout.aggregates(originDir);
+    }
+
+    Stream<Path> originDirectories() {
+        return roots.all().stream().filter(Files::isDirectory).flatMap(root -> list(root).stream()).filter(
+                IS_VISIBLE_DIRECTORY
+        );
+    }
+
+    /**
+     * Rebuilds manifest of aggregate directory after its files have been replaced by an archive.
+     */
+    void rebuildManifest(Path dir) {
+        locked(dir, () -> {
+            Manifest.rebuild(dir);
+            return null;
+        });
+    }
+
+    /**
+     * Writes an archive into aggregate directory, recording it in the journal.
+     */
+    EventArchive writeArchive(Path dir, List<EventArchive.Record> records) {
+        EventArchive archive = EventArchive.name(dir, records);
+        return journalled(() -> {
+            journal(archive.getPath()).append(archive.getPath());
+            return EventArchive.write(archive, records);
+        });
+    }
+
+    /**
+     * Runs a write of journalled files, shared with other writes and exclusive with checkpoints, so that
+     * a checkpoint never forces a file still being written and then drops it from the journal.
+     */
+    private <T> T journalled(Supplier<T> write) {
+        Lock lock = checkpointLock.readLock();
+        lock.lock();
+        try {
+            return write.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void exclusive(Runnable checkpoint) {
+        Lock lock = checkpointLock.writeLock();
+        lock.lock();
+        try {
+            checkpoint.run();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean isIntact(Path file) {
+        try {
+            if (IS_EVENT.test(file)) {
+                return Checksums.isSealed(Files.readAllBytes(file));
+            } else {
+                return EventArchive.of(file).map(
+                        archive -> archive.read(-1).stream().allMatch(record -> Checksums.isSealed(record.getBytes()))
+                ).orElse(true);
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.warn("Unable to validate [{}]: {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    static List<Path> list(Path dir) {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to list [" + String.valueOf(dir) + "]", e);
+        }
+    }
+
+    private String generateId() {
+        return idGenerator.generate();
     }
 
     private static Optional<Path> exists(Path path) {
@@ -203,8 +910,38 @@ public class FileEventStore implements EventStore {
         return create;
     }
 
+    private static String globalName(Event event) {
+        return MessageFormat.format(NAME_PATTERN_TIME, formatTime(event.getStored()), event.getId(), event.getType());
+    }
+
     private static String formatTime(Instant stored) {
         return String.valueOf(stored).replace(":", "-");
     }
 
+    /**
+     * Parses storage time from the name of a global event file.
+     */
+    static Instant getTimeFromFileEvent(Path p) {
+        String name = p.toString();
+        int t = name.indexOf('T');
+        int end = name.indexOf('=');
+        if (t < 0 || end < t) {
+            throw new IllegalArgumentException("Error parsing file path: " + name);
+        }
+        return Instant.parse(name.substring(0, t + 1) + name.substring(t + 1, end).replace("-", ":"));
+    }
+
+    /**
+     * Part of aggregate history - either a single event file or an archive - along with its first seq.
+     */
+    @Getter
+    @AllArgsConstructor
+    private static class Segment {
+        private final long first;
+        private final Path source;
+        /**
+         * Sealed records, see {@link Checksums}
+         */
+        private final Supplier<Stream<byte[]>> records;
+    }
 }
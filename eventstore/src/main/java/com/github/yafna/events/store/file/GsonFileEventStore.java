@@ -4,23 +4,99 @@ import com.fatboyindustrial.gsonjavatime.Converters;
 import com.github.yafna.events.store.StoredEvent;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
 
 public class GsonFileEventStore extends FileEventStore {
-    private final static Gson gson = Converters.registerAll(new GsonBuilder()).create();
+    private final static Gson gson = Converters.registerAll(new GsonBuilder()).registerTypeAdapter(
+            StoredEvent.class, new StoredEventAdapter()
+    ).create();
+    private final static TypeAdapter<StoredEvent> ADAPTER = gson.getAdapter(StoredEvent.class);
+    /**
+     * Buffers larger than this are not kept for the next event.
+     */
+    private final static int MAX_POOLED = 1 << 20;
+    private final static ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
 
     public GsonFileEventStore(Clock clock, File rootDir) {
-        super(clock, rootDir, GsonFileEventStore::toBytes, GsonFileEventStore::parse);
+        this(clock, rootDir, Layout.FLAT);
     }
 
-    private static StoredEvent parse(byte[] bytes) {
-        return gson.fromJson(new String(bytes, StandardCharsets.UTF_8), StoredEvent.class);
+    public GsonFileEventStore(Clock clock, File rootDir, Layout layout) {
+        super(clock, rootDir, layout, GsonFileEventStore::toBytes, GsonFileEventStore::parse);
+        setParser(new JsonEventParser());
     }
 
-    private static byte[] toBytes(StoredEvent event) {
-        return gson.toJson(event).getBytes(StandardCharsets.UTF_8);
+    public GsonFileEventStore(Clock clock, List<File> rootDirs, Layout layout) {
+        this(clock, rootDirs, layout, false);
+    }
+
+    private GsonFileEventStore(Clock clock, List<File> rootDirs, Layout layout, boolean readOnly) {
+        super(clock, rootDirs, layout, GsonFileEventStore::toBytes, GsonFileEventStore::parse, readOnly);
+        setParser(new JsonEventParser());
+    }
+
+    /**
+     * Opens directories written by another process as a read-only store, which is kept up to date
+     * once its follower is started, see {@link FileEventFollower}.
+     */
+    public static GsonFileEventStore follower(Clock clock, List<File> rootDirs, Layout layout) {
+        return new GsonFileEventStore(clock, rootDirs, layout, true);
+    }
+
+    public static GsonFileEventStore follower(Clock clock, File rootDir) {
+        return follower(clock, Collections.singletonList(rootDir), Layout.FLAT);
+    }
+
+    /**
+     * Reads event straight from the record bytes, with no intermediate String.
+     */
+    public static StoredEvent parse(byte[] bytes) {
+        try (JsonReader reader = new JsonReader(new Utf8Reader(bytes, 0, bytes.length))) {
+            return ADAPTER.read(reader);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Writes event into a buffer reused by the thread, the only copy made is the returned array.
+     */
+    static byte[] toBytes(StoredEvent event) {
+        Output output = OUTPUT.get();
+        output.reset();
+        try {
+            JsonWriter writer = new JsonWriter(output.writer);
+            writer.setHtmlSafe(true);
+            ADAPTER.write(writer, event);
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to serialize event [" + event.getId() + "]", e);
+        }
+        byte[] bytes = output.toByteArray();
+        if (output.capacity() > MAX_POOLED) {
+            OUTPUT.remove();
+        }
+        return bytes;
+    }
+
+    private static class Output extends ByteArrayOutputStream {
+        private final Writer writer = new OutputStreamWriter(this, StandardCharsets.UTF_8);
+
+        int capacity() {
+            return buf.length;
+        }
     }
 }
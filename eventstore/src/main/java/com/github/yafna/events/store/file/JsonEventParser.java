@@ -0,0 +1,242 @@
+package com.github.yafna.events.store.file;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Parses event records written by {@link GsonFileEventStore} into a {@link ReplayEvent}, recording where the values
+ * are instead of materializing them. Records are flat JSON objects with string and number values,
+ * fields the view does not know about are skipped.
+ */
+final class JsonEventParser {
+    private static final byte[] ID = bytes("id");
+    private static final byte[] AGGREGATE_ID = bytes("aggregateId");
+    private static final byte[] SEQ = bytes("seq");
+    private static final byte[] CORR_ID = bytes("corrId");
+    private static final byte[] CAUSE_ID = bytes("causeId");
+    private static final byte[] ORIGIN = bytes("origin");
+    private static final byte[] TYPE = bytes("type");
+    private static final byte[] STORED = bytes("stored");
+    private static final byte[] PAYLOAD = bytes("payload");
+    private static final byte[] NULL = bytes("null");
+
+    /**
+     * @param record record bytes
+     * @param length length of the record, which may be followed by other data (see {@link Checksums})
+     * @param dictionary dictionary of origins and types
+     * @param into view to point to the record
+     * @throws IllegalStateException if record is not a flat JSON object
+     */
+    void parse(byte[] record, int length, Dictionary dictionary, ReplayEvent into) {
+        into.reset(record);
+        int i = expect(record, skip(record, 0, length), length, '{');
+        i = skip(record, i, length);
+        if (i < length && record[i] == '}') {
+            return;
+        }
+        while (true) {
+            int keyStart = expect(record, i, length, '"');
+            int keyEnd = endOfString(record, keyStart, length);
+            i = skip(record, expect(record, skip(record, keyEnd + 1, length), length, ':'), length);
+            if (i >= length) {
+                throw malformed();
+            }
+            if (record[i] == '"') {
+                int start = i + 1;
+                int end = endOfString(record, start, length);
+                boolean escaped = false;
+                for (int j = start; j < end && !escaped; j++) {
+                    escaped = record[j] == '\\';
+                }
+                string(record, keyStart, keyEnd, start, end, escaped, dictionary, into);
+                i = end + 1;
+            } else if (record[i] == 'n') {
+                if (!matches(record, i, Math.min(i + NULL.length, length), NULL)) {
+                    throw malformed();
+                }
+                i += NULL.length;
+            } else {
+                int start = i;
+                while (i < length && record[i] != ',' && record[i] != '}' && !isWhitespace(record[i])) {
+                    i++;
+                }
+                if (matches(record, keyStart, keyEnd, SEQ)) {
+                    into.setSeq(parseLong(record, start, i));
+                }
+            }
+            i = skip(record, i, length);
+            if (i < length && record[i] == ',') {
+                i = skip(record, i + 1, length);
+            } else if (i < length && record[i] == '}') {
+                return;
+            } else {
+                throw malformed();
+            }
+        }
+    }
+
+    private static void string(
+            byte[] record, int keyStart, int keyEnd, int start, int end, boolean escaped,
+            Dictionary dictionary, ReplayEvent into
+    ) {
+        if (matches(record, keyStart, keyEnd, ID)) {
+            into.set(ReplayEvent.ID, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, AGGREGATE_ID)) {
+            into.set(ReplayEvent.AGGREGATE_ID, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, CORR_ID)) {
+            into.set(ReplayEvent.CORR_ID, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, CAUSE_ID)) {
+            into.set(ReplayEvent.CAUSE_ID, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, STORED)) {
+            into.set(ReplayEvent.STORED, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, PAYLOAD)) {
+            into.set(ReplayEvent.PAYLOAD, start, end, escaped);
+        } else if (matches(record, keyStart, keyEnd, ORIGIN)) {
+            into.setOrigin(escaped ? decode(record, start, end, true) : dictionary.get(record, start, end));
+        } else if (matches(record, keyStart, keyEnd, TYPE)) {
+            into.setType(escaped ? decode(record, start, end, true) : dictionary.get(record, start, end));
+        }
+    }
+
+    /**
+     * Decodes JSON string value, given without quotes.
+     */
+    static String decode(byte[] record, int start, int end, boolean escaped) {
+        if (!escaped) {
+            return new String(record, start, end - start, StandardCharsets.UTF_8);
+        }
+        StringBuilder result = new StringBuilder(end - start);
+        int run = start;
+        for (int i = start; i < end; i++) {
+            if (record[i] != '\\') {
+                continue;
+            }
+            result.append(new String(record, run, i - run, StandardCharsets.UTF_8));
+            char c = (char) record[++i];
+            switch (c) {
+                case 'b':
+                    result.append('\b');
+                    break;
+                case 'f':
+                    result.append('\f');
+                    break;
+                case 'n':
+                    result.append('\n');
+                    break;
+                case 'r':
+                    result.append('\r');
+                    break;
+                case 't':
+                    result.append('\t');
+                    break;
+                case 'u':
+                    result.append((char) Integer.parseInt(new String(record, i + 1, 4, StandardCharsets.US_ASCII), 16));
+                    i += 4;
+                    break;
+                default:
+                    result.append(c);
+            }
+            run = i + 1;
+        }
+        return result.append(new String(record, run, end - run, StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * @return index of the closing quote of a string starting at a given index
+     */
+    private static int endOfString(byte[] record, int start, int length) {
+        for (int i = start; i < length; i++) {
+            if (record[i] == '\\') {
+                i++;
+            } else if (record[i] == '"') {
+                return i;
+            }
+        }
+        throw malformed();
+    }
+
+    private static long parseLong(byte[] record, int start, int end) {
+        boolean negative = start < end && record[start] == '-';
+        long value = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            if (record[i] < '0' || record[i] > '9') {
+                throw malformed();
+            }
+            value = value * 10 + record[i] - '0';
+        }
+        return negative ? -value : value;
+    }
+
+    private static int expect(byte[] record, int i, int length, char c) {
+        if (i >= length || record[i] != c) {
+            throw malformed();
+        }
+        return i + 1;
+    }
+
+    private static int skip(byte[] record, int i, int length) {
+        while (i < length && isWhitespace(record[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean matches(byte[] record, int start, int end, byte[] key) {
+        if (end - start != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (record[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static IllegalStateException malformed() {
+        return new IllegalStateException("Malformed event record");
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Strings decoded so far, looked up by their bytes without decoding them again.
+     * Meant for values repeating on every event, such as origin and type, and thus limited in size.
+     * Not thread safe, every replay has its own.
+     */
+    static final class Dictionary {
+        private static final int MAX_SIZE = 256;
+
+        private final byte[][] keys = new byte[MAX_SIZE * 2][];
+        private final String[] values = new String[MAX_SIZE * 2];
+        private int size;
+
+        String get(byte[] record, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + record[i];
+            }
+            int mask = keys.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                byte[] key = keys[slot];
+                if (key == null) {
+                    String value = new String(record, start, end - start, StandardCharsets.UTF_8);
+                    if (size < MAX_SIZE) {
+                        keys[slot] = Arrays.copyOfRange(record, start, end);
+                        values[slot] = value;
+                        size++;
+                    }
+                    return value;
+                } else if (matches(record, start, end, key)) {
+                    return values[slot];
+                }
+            }
+        }
+    }
+}
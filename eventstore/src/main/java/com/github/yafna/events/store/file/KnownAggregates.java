@@ -0,0 +1,67 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory filter of aggregate ids present in store, per origin, populated when the store is opened and on write.
+ * Lookups of aggregates that have never been written are answered without touching the file system.
+ * <p>
+ * Filters are Bloom filters, so an aggregate reported as known may still be missing and has to be checked on disk,
+ * while an unknown one is missing for sure. Each filter is sized for twice the aggregates found at startup;
+ * beyond that false positives get more frequent, but the answers stay correct.
+ * Aggregate directories created by other processes after startup are not seen, unless followed
+ * (see {@link FileEventFollower}).
+ */
+final class KnownAggregates {
+    private static final int MIN_EXPECTED = 1 << 16;
+    private static final double FALSE_POSITIVES = 0.01;
+
+    private final Map<String, BloomFilter<CharSequence>> filters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates filter of an origin out of all its aggregate ids found in store.
+     */
+    void load(String origin, List<String> aggregateIds) {
+        BloomFilter<CharSequence> filter = create(2 * aggregateIds.size());
+        aggregateIds.forEach(filter::put);
+        filters.put(origin, filter);
+    }
+
+    /**
+     * @return false if aggregate is certainly not present in store
+     */
+    boolean mightExist(String origin, String aggregateId) {
+        BloomFilter<CharSequence> filter = filters.get(origin);
+        if (filter == null) {
+            return false;
+        }
+        // Guava filters are not safe for concurrent updates
+        synchronized (filter) {
+            return filter.mightContain(aggregateId);
+        }
+    }
+
+    /**
+     * Records aggregate as present, must be called before its directory is created.
+     *
+     * @return true if aggregate has certainly not been known before
+     */
+    boolean add(String origin, String aggregateId) {
+        BloomFilter<CharSequence> filter = filters.computeIfAbsent(origin, o -> create(0));
+        synchronized (filter) {
+            return filter.put(aggregateId);
+        }
+    }
+
+    private static BloomFilter<CharSequence> create(int expected) {
+        return BloomFilter.create(
+                Funnels.stringFunnel(StandardCharsets.UTF_8), Math.max(MIN_EXPECTED, expected), FALSE_POSITIVES
+        );
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Describes how aggregate directories are placed inside of the origin directory.
+ */
+public interface Layout {
+    /**
+     * Every aggregate directory is placed directly in origin directory: {@code origin/aggregateId}.
+     */
+    Layout FLAT = new Sharded(0);
+
+    /**
+     * Aggregate directories are spread over nested shard directories, named after bytes of aggregate id hash:
+     * {@code origin/3f/a0/aggregateId} for two levels. With 256 entries per shard level directories stay small
+     * regardless of the number of aggregates, which keeps lookups and creation cheap.
+     *
+     * @param levels number of shard directory levels, 0 to 4
+     */
+    static Layout sharded(int levels) {
+        if (levels < 0 || levels > 4) {
+            throw new IllegalArgumentException("Shard levels must be within 0..4, got [" + levels + "]");
+        }
+        return new Sharded(levels);
+    }
+
+    /**
+     * Resolves directory of a given aggregate.
+     */
+    Path resolve(Path originDir, String aggregateId);
+
+    /**
+     * Enumerates directories of all aggregates in origin directory.
+     */
+    Stream<Path> aggregates(Path originDir);
+
+    @AllArgsConstructor
+    class Sharded implements Layout {
+        private static final HashFunction HASH = Hashing.murmur3_32();
+
+        private final int levels;
+
+        @Override
+        public Path resolve(Path originDir, String aggregateId) {
+            byte[] hash = HASH.hashString(aggregateId, StandardCharsets.UTF_8).asBytes();
+            Path dir = originDir;
+            for (int i = 0; i < levels; i++) {
+                dir = dir.resolve(String.format("%02x", hash[i]));
+            }
+            return dir.resolve(aggregateId);
+        }
+
+        @Override
+        public Stream<Path> aggregates(Path originDir) {
+            Stream<Path> dirs = Stream.of(originDir);
+            for (int i = 0; i <= levels; i++) {
+                dirs = dirs.flatMap(dir -> FileEventStore.list(dir).stream().filter(FileEventStore.IS_VISIBLE_DIRECTORY));
+            }
+            return dirs;
+        }
+
+        @Override
+        public String toString() {
+            return levels == 0 ? "flat" : "sharded(" + levels + ")";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.github.yafna.events.store.file;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Offline tool that moves aggregate directories of a {@link FileEventStore} from one {@link Layout} to another,
+ * and rebalances aggregates and global events across store roots (see {@link Roots}) after a root has been added.
+ * Must not be run while the store is in use.
+ * <p>
+ * Within a root each directory is moved with a single rename. Between roots it is copied next to its target
+ * under a hidden name first, renamed into place and only then removed from the source root.
+ * Either way an interrupted migration can simply be started again.
+ * <p>
+ * Usage: {@code LayoutMigration <rootDir>[,<rootDir>...] <fromLevels> <toLevels>}, where 0 levels stands for flat layout.
+ */
+@Slf4j
+public class LayoutMigration {
+    private final Roots roots;
+    private final Layout from;
+    private final Layout to;
+
+    public LayoutMigration(Path rootDir, Layout from, Layout to) {
+        this(Collections.singletonList(rootDir), from, to);
+    }
+
+    /**
+     * @param rootDirs all the roots of the store, in the order given to the store
+     */
+    public LayoutMigration(List<Path> rootDirs, Layout from, Layout to) {
+        this.roots = new Roots(rootDirs);
+        this.from = from;
+        this.to = to;
+    }
+
+    public static void main(String... args) {
+        if (args.length != 3) {
+            System.err.println("Usage: LayoutMigration <rootDir>[,<rootDir>...] <fromLevels> <toLevels>");
+            System.exit(1);
+        }
+        List<Path> rootDirs = Roots.parse(args[0]).stream().map(File::toPath).collect(Collectors.toList());
+        Layout from = Layout.sharded(Integer.parseInt(args[1]));
+        Layout to = Layout.sharded(Integer.parseInt(args[2]));
+        int moved = new LayoutMigration(rootDirs, from, to).run();
+        System.out.println("Moved " + moved + " aggregates from " + from + " to " + to + " layout");
+    }
+
+    /**
+     * @return number of aggregate directories moved
+     */
+    public int run() {
+        return roots.all().stream().filter(Files::isDirectory).flatMap(
+                root -> FileEventStore.list(root).stream().filter(FileEventStore.IS_VISIBLE_DIRECTORY)
+        ).collect(Collectors.toList()).stream().mapToInt(this::migrate).sum();
+    }
+
+    private int migrate(Path originDir) {
+        String origin = originDir.getFileName().toString();
+        // Shard directories of a half-done migration look like aggregates to the flat layout: they hold no files
+        List<Path> aggregates = from.aggregates(originDir).filter(
+                LayoutMigration::holdsEvents
+        ).collect(Collectors.toList());
+        int moved = 0;
+        for (Path dir : aggregates) {
+            String aggregateId = dir.getFileName().toString();
+            Path target = to.resolve(roots.of(aggregateId).resolve(origin), aggregateId);
+            if (!target.equals(dir)) {
+                move(dir, target);
+                removeEmptyParents(originDir, dir);
+                moved++;
+            }
+        }
+        List<Path> globals = FileEventStore.list(originDir).stream().filter(FileEventStore.IS_EVENT).collect(
+                Collectors.toList()
+        );
+        int rebalanced = 0;
+        for (Path file : globals) {
+            Path target = roots.of(FileEventStore.getTimeFromFileEvent(file.getFileName())).resolve(origin).resolve(
+                    file.getFileName()
+            );
+            if (!target.equals(file)) {
+                move(file, target);
+                rebalanced++;
+            }
+        }
+        log.info("Moved {} aggregates and {} global events of [{}]", moved, rebalanced, originDir);
+        return moved;
+    }
+
+    private static boolean holdsEvents(Path dir) {
+        return FileEventStore.list(dir).stream().anyMatch(file -> !Files.isDirectory(file));
+    }
+
+    private static void removeEmptyParents(Path originDir, Path dir) {
+        for (Path parent = dir.getParent(); !parent.equals(originDir); parent = parent.getParent()) {
+            if (!FileEventStore.list(parent).isEmpty()) {
+                return;
+            }
+            try {
+                Files.delete(parent);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to delete [" + String.valueOf(parent) + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Moves a file or directory, possibly to another root. If the target exists,
+     * it has been moved into place by an interrupted run, and only the source is left to be removed.
+     */
+    private static void move(Path source, Path target) {
+        try {
+            Files.createDirectories(target.getParent());
+            if (!Files.exists(target)) {
+                try {
+                    Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    return;
+                } catch (AtomicMoveNotSupportedException e) {
+                    copy(source, target);
+                }
+            }
+            FileUtils.forceDelete(source.toFile());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to move [" + String.valueOf(source) + "] to [" + target + "]", e);
+        }
+    }
+
+    private static void copy(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling("." + target.getFileName() + RecoveryJournal.TMP_SUFFIX);
+        FileUtils.deleteQuietly(tmp.toFile());
+        if (Files.isDirectory(source)) {
+            FileUtils.copyDirectory(source.toFile(), tmp.toFile());
+        } else {
+            FileUtils.copyFile(source.toFile(), tmp.toFile());
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
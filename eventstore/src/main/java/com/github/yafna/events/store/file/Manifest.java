@@ -0,0 +1,188 @@
+package com.github.yafna.events.store.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Per-aggregate manifest mapping seq to the file holding the event, either a standalone event file or an archive.
+ * Reads from a given seq open only the files they need instead of listing and sorting the whole aggregate directory.
+ * <p>
+ * Manifest consists of two hidden files in aggregate directory: {@code .names}, the log of file names,
+ * one line per seq, and {@code .idx} with 8-byte offsets of those lines, so that the entry of any seq
+ * is found with a single positioned read. Writers append entries under the directory lock, names before offsets,
+ * thus readers never see an offset pointing past the end of the names log.
+ * <p>
+ * Manifest is rebuilt from directory listing when missing, after compaction and by recovery.
+ */
+final class Manifest {
+    static final String INDEX = ".idx";
+    static final String NAMES = ".names";
+    private static final int ENTRY = Long.BYTES;
+
+    private Manifest() {
+    }
+
+    /**
+     * Number of entries, which is also the seq the next event of aggregate gets.
+     * Missing manifest is rebuilt, so the caller must hold the directory lock.
+     */
+    static long size(Path dir) {
+        Path index = dir.resolve(INDEX);
+        try {
+            if (!Files.exists(index)) {
+                rebuild(dir);
+            }
+            return Files.size(index) / ENTRY;
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read [" + String.valueOf(index) + "]", e);
+        }
+    }
+
+    /**
+     * Appends entries for the events just written, the first of them getting seq equal to {@link #size}.
+     *
+     * @param names names of files holding the events, in seq order
+     */
+    static void append(Path dir, List<String> names) {
+        try (FileChannel log = open(dir.resolve(NAMES)); FileChannel index = open(dir.resolve(INDEX))) {
+            ByteBuffer[] entries = entries(log.size(), names);
+            write(log, entries[0]);
+            write(index, entries[1]);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to update manifest of [" + String.valueOf(dir) + "]", e);
+        }
+    }
+
+    /**
+     * @return lines of names log and their offsets
+     */
+    private static ByteBuffer[] entries(long offset, List<String> names) {
+        ByteBuffer offsets = ByteBuffer.allocate(names.size() * ENTRY);
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        for (String name : names) {
+            offsets.putLong(offset + lines.size());
+            byte[] line = (name + "\n").getBytes(StandardCharsets.UTF_8);
+            lines.write(line, 0, line.length);
+        }
+        offsets.flip();
+        return new ByteBuffer[]{ByteBuffer.wrap(lines.toByteArray()), offsets};
+    }
+
+    /**
+     * Looks up files holding events from a given seq on.
+     *
+     * @return file names in seq order, one per seq, or nothing if there is no manifest. As readers do not take
+     * the directory lock, names may come from a manifest which is being rebuilt and must be checked by the caller.
+     */
+    static Optional<List<String>> read(Path dir, long fromSeq) {
+        try (FileChannel index = FileChannel.open(dir.resolve(INDEX), StandardOpenOption.READ)) {
+            long count = index.size() / ENTRY;
+            if (fromSeq >= count) {
+                return Optional.of(Collections.emptyList());
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY);
+            read(index, entry, fromSeq * ENTRY);
+            long offset = entry.getLong(0);
+            try (FileChannel log = FileChannel.open(dir.resolve(NAMES), StandardOpenOption.READ)) {
+                if (offset > log.size()) {
+                    // Names log has just been replaced by rebuild
+                    return Optional.empty();
+                }
+                ByteBuffer tail = ByteBuffer.allocate((int) (log.size() - offset));
+                read(log, tail, offset);
+                List<String> names = Arrays.asList(new String(tail.array(), StandardCharsets.UTF_8).split("\n"));
+                return Optional.of(names.subList(0, (int) Math.min(names.size(), count - fromSeq)));
+            }
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read manifest of [" + String.valueOf(dir) + "]", e);
+        }
+    }
+
+    /**
+     * Builds manifest from scratch out of directory listing. Old index is removed before the names log is replaced
+     * and the new one is moved into place last, so an interrupted rebuild leaves no manifest rather than a broken one.
+     */
+    static void rebuild(Path dir) {
+        TreeMap<Long, String> files = new TreeMap<>();
+        List<Path> listed = FileEventStore.list(dir);
+        listed.stream().filter(FileEventStore.IS_EVENT).forEach(
+                file -> files.put(FileEventStore.getSeqFromFileEvent(file.getFileName()), file.getFileName().toString())
+        );
+        listed.stream().map(EventArchive::of).filter(Optional::isPresent).map(Optional::get).forEach(archive -> {
+            for (long seq = archive.getFirst(); seq <= archive.getLast(); seq++) {
+                files.put(seq, archive.getPath().getFileName().toString());
+            }
+        });
+        List<String> names = new ArrayList<>(files.size());
+        files.forEach((seq, name) -> {
+            if (seq != names.size()) {
+                throw new IllegalStateException("Aggregate history has a gap at seq " + names.size() + " in [" + dir + "]");
+            }
+            names.add(name);
+        });
+
+        ByteBuffer[] entries = entries(0, names);
+        Path index = dir.resolve(INDEX);
+        try {
+            Path log = write(dir.resolve(NAMES + RecoveryJournal.TMP_SUFFIX), entries[0]);
+            Path offsets = write(dir.resolve(INDEX + RecoveryJournal.TMP_SUFFIX), entries[1]);
+            Files.deleteIfExists(index);
+            Files.move(log, dir.resolve(NAMES), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(offsets, index, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to rebuild manifest of [" + String.valueOf(dir) + "]", e);
+        }
+    }
+
+    /**
+     * Manifest files of a directory, if present.
+     */
+    static Stream<Path> files(Path dir) {
+        return Stream.of(dir.resolve(NAMES), dir.resolve(INDEX)).filter(Files::exists);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static Path write(Path file, ByteBuffer buffer) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE
+        )) {
+            write(channel, buffer);
+            channel.force(true);
+        }
+        return file;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Replay mode of {@link FileEventStore} that reads and decodes upcoming events on a thread pool
+ * while the consumer is busy with the current one (see {@link FileEventStore#setReadAhead}).
+ * <p>
+ * At most {@code depth} reads are in flight or waiting to be consumed, which bounds memory use.
+ * Results are delivered strictly in order, regardless of the order reads complete in.
+ * A read is a single event file or a whole archive, so up to {@code depth} archives may be held at once.
+ */
+public class ReadAhead {
+    private final int depth;
+    private final Executor executor;
+
+    /**
+     * @param depth number of reads to run ahead of the consumer
+     * @param executor executor to run reads on
+     */
+    public ReadAhead(int depth, Executor executor) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Read-ahead depth must be positive, got [" + depth + "]");
+        }
+        this.depth = depth;
+        this.executor = executor;
+    }
+
+    /**
+     * Read-ahead running on a pool of daemon threads of its own.
+     */
+    public static ReadAhead create(int depth, int threads) {
+        return new ReadAhead(depth, Executors.newFixedThreadPool(
+                threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("event-read-ahead-%d").build()
+        ));
+    }
+
+    /**
+     * Runs reads ahead of consumption. Reads still pending when the stream is closed are cancelled.
+     *
+     * @param reads reads to run, in order of delivery
+     * @return results of the reads
+     */
+    <T> Stream<T> apply(Stream<Supplier<T>> reads) {
+        Prefetch<T> prefetch = new Prefetch<>(reads.iterator());
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(prefetch, Spliterator.ORDERED | Spliterator.NONNULL), false
+        ).onClose(prefetch::cancel).onClose(reads::close);
+    }
+
+    private class Prefetch<T> implements Iterator<T> {
+        private final Iterator<Supplier<T>> source;
+        private final Deque<CompletableFuture<T>> pending = new ArrayDeque<>(depth);
+
+        Prefetch(Iterator<Supplier<T>> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            fill();
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public T next() {
+            fill();
+            CompletableFuture<T> head = pending.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            T result;
+            try {
+                result = head.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+            // Refill only once the head is done, so that it does not count on top of the depth
+            fill();
+            return result;
+        }
+
+        private void fill() {
+            while (pending.size() < depth && source.hasNext()) {
+                pending.add(CompletableFuture.supplyAsync(source.next(), executor));
+            }
+        }
+
+        void cancel() {
+            pending.forEach(read -> read.cancel(false));
+            pending.clear();
+        }
+    }
+}
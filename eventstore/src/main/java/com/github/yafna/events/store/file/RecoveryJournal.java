@@ -0,0 +1,196 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.collect.Iterables;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the list of files written since the last clean shutdown, so that recovery validates
+ * only those instead of the whole store.
+ * <p>
+ * A file is recorded in the journal before it is written. On clean shutdown the journal is emptied
+ * and a marker is left next to it. If the marker is missing at startup, every journalled file
+ * (and a temporary file left next to it, if any) is validated and the damaged ones are moved to quarantine.
+ * Appends are forced in groups, every {@code SYNC_EVERY} entries or {@code SYNC_MILLIS} milliseconds,
+ * whichever comes first, and entries left unforced once writes go quiet are forced by {@link #syncIdle()}.
+ * A crash may thus lose the entries of the last few milliseconds, a file of those which is torn is not
+ * quarantined on startup, but still fails its checksum once read (see {@link Checksums}).
+ * The files themselves are forced by {@link #checkpoint()}, which {@link FileEventStore} runs periodically,
+ * so the journal holds only the files written since the last checkpoint. Callers make sure no file
+ * is being written while a checkpoint is in progress, as it would be dropped from the journal unforced.
+ */
+@Slf4j
+class RecoveryJournal implements Closeable {
+    private static final String JOURNAL = ".journal";
+    private static final String CLEAN = ".clean";
+    static final String QUARANTINE = ".quarantine";
+    static final String TMP_SUFFIX = ".tmp";
+    static final long SYNC_MILLIS = 50;
+    private static final int SYNC_EVERY = 64;
+
+    private final Path root;
+    private FileChannel channel;
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+
+    RecoveryJournal(Path root) {
+        this.root = root;
+    }
+
+    synchronized void append(Path file) {
+        byte[] entry = (root.relativize(file).toString() + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(
+                        root.resolve(JOURNAL), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND
+                );
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(entry);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            long now = System.currentTimeMillis();
+            if (++unsynced >= SYNC_EVERY || now - lastSync >= SYNC_MILLIS) {
+                sync(now);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to append to journal in [" + String.valueOf(root) + "]", e);
+        }
+    }
+
+    /**
+     * Forces entries appended at least {@code SYNC_MILLIS} ago, which no later append has forced.
+     */
+    synchronized void syncIdle() {
+        long now = System.currentTimeMillis();
+        if (unsynced > 0 && now - lastSync >= SYNC_MILLIS && channel != null) {
+            try {
+                sync(now);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to sync journal in [" + String.valueOf(root) + "]", e);
+            }
+        }
+    }
+
+    private void sync(long now) throws IOException {
+        channel.force(false);
+        unsynced = 0;
+        lastSync = now;
+    }
+
+    /**
+     * Validates files written since the last clean shutdown.
+     *
+     * @param intact validation function for journalled files
+     * @param repair invoked with journalled files after damaged ones have been quarantined,
+     * to repair whatever depends on them before the journal is emptied
+     * @return files moved to quarantine
+     */
+    synchronized List<Path> recover(Predicate<Path> intact, Consumer<List<Path>> repair) {
+        Path clean = root.resolve(CLEAN);
+        List<Path> quarantined = new ArrayList<>();
+        try {
+            if (Files.deleteIfExists(clean)) {
+                log.debug("Clean shutdown marker found in [{}]", root);
+            } else {
+                List<Path> entries = entries();
+                for (Path file : entries) {
+                    Path tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+                    if (Files.exists(tmp)) {
+                        quarantined.add(quarantine(tmp));
+                    }
+                    if (Files.exists(file) && !intact.test(file)) {
+                        quarantined.add(quarantine(file));
+                    }
+                }
+                if (!quarantined.isEmpty()) {
+                    log.warn("Torn writes moved to quarantine:\n    {}", quarantined);
+                }
+                repair.accept(entries);
+            }
+            truncate();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to recover [" + String.valueOf(root) + "]", e);
+        }
+        return quarantined;
+    }
+
+    /**
+     * Forces all journalled files to disk, along with manifests of their directories (see {@link Manifest}),
+     * and empties the journal, so that the next recovery does not need to validate them.
+     */
+    synchronized void checkpoint() {
+        try {
+            List<Path> entries = entries();
+            List<Path> manifests = entries.stream().map(Path::getParent).distinct().flatMap(Manifest::files).collect(
+                    Collectors.toList()
+            );
+            for (Path file : Iterables.concat(entries, manifests)) {
+                if (Files.exists(file)) {
+                    try (FileChannel written = FileChannel.open(file, StandardOpenOption.READ)) {
+                        written.force(true);
+                    }
+                }
+            }
+            truncate();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to checkpoint [" + String.valueOf(root) + "]", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        checkpoint();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            if (Files.isDirectory(root)) {
+                Files.write(root.resolve(CLEAN), new byte[0]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to mark clean shutdown in [" + String.valueOf(root) + "]", e);
+        }
+    }
+
+    private List<Path> entries() throws IOException {
+        Path journal = root.resolve(JOURNAL);
+        if (!Files.exists(journal)) {
+            return new ArrayList<>();
+        }
+        return Files.readAllLines(journal, StandardCharsets.UTF_8).stream().filter(
+                line -> !line.isEmpty()
+        ).distinct().map(root::resolve).collect(Collectors.toList());
+    }
+
+    private void truncate() throws IOException {
+        if (channel != null) {
+            channel.truncate(0);
+            channel.force(true);
+            unsynced = 0;
+        } else {
+            Files.deleteIfExists(root.resolve(JOURNAL));
+        }
+    }
+
+    private Path quarantine(Path file) throws IOException {
+        Path target = root.resolve(QUARANTINE).resolve(root.relativize(file));
+        Files.createDirectories(target.getParent());
+        return Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+}
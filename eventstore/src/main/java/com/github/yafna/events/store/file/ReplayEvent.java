@@ -0,0 +1,139 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.Event;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Reusable view of an event record, passed to the consumer of {@link FileEventStore#replay} for every event in turn.
+ * String fields are kept as slices of the record bytes and decoded only when asked for, origin and type come from
+ * a dictionary shared by the whole replay and seq is held as a primitive, so replaying an event allocates
+ * next to nothing beyond what the consumer decodes.
+ */
+final class ReplayEvent implements Event {
+    static final int ID = 0;
+    static final int AGGREGATE_ID = 1;
+    static final int CORR_ID = 2;
+    static final int CAUSE_ID = 3;
+    static final int STORED = 4;
+    static final int PAYLOAD = 5;
+    private static final int FIELDS = 6;
+
+    private byte[] record;
+    private final int[] starts = new int[FIELDS];
+    private final int[] ends = new int[FIELDS];
+    private final boolean[] escaped = new boolean[FIELDS];
+    private final String[] decoded = new String[FIELDS];
+    private String origin;
+    private String type;
+    private long seq;
+    private boolean sequenced;
+    private Instant stored;
+
+    /**
+     * Points the view to a new record, forgetting all fields of the previous one.
+     */
+    void reset(byte[] record) {
+        this.record = record;
+        Arrays.fill(starts, -1);
+        Arrays.fill(decoded, null);
+        origin = null;
+        type = null;
+        sequenced = false;
+        stored = null;
+    }
+
+    /**
+     * Sets field to a slice of the record holding its JSON string value, without quotes.
+     */
+    void set(int field, int start, int end, boolean escaped) {
+        starts[field] = start;
+        ends[field] = end;
+        this.escaped[field] = escaped;
+    }
+
+    void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    void setType(String type) {
+        this.type = type;
+    }
+
+    void setSeq(long seq) {
+        this.seq = seq;
+        this.sequenced = true;
+    }
+
+    @Override
+    public String getAggregateId() {
+        return decode(AGGREGATE_ID);
+    }
+
+    @Override
+    public Long getSeq() {
+        return sequenced ? seq : null;
+    }
+
+    @Override
+    public long seq() {
+        if (!sequenced) {
+            throw new IllegalStateException("No seq in event [" + getId() + "]");
+        }
+        return seq;
+    }
+
+    @Override
+    public String getId() {
+        return decode(ID);
+    }
+
+    @Override
+    public String getCorrId() {
+        return decode(CORR_ID);
+    }
+
+    @Override
+    public String getCauseId() {
+        return decode(CAUSE_ID);
+    }
+
+    @Override
+    public String getOrigin() {
+        return origin;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public Instant getStored() {
+        if (stored == null && starts[STORED] >= 0) {
+            stored = Instant.parse(decode(STORED));
+        }
+        return stored;
+    }
+
+    @Override
+    public String getPayload() {
+        return decode(PAYLOAD);
+    }
+
+    private String decode(int field) {
+        if (starts[field] < 0) {
+            return null;
+        }
+        if (decoded[field] == null) {
+            decoded[field] = JsonEventParser.decode(record, starts[field], ends[field], escaped[field]);
+        }
+        return decoded[field];
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayEvent(" + origin + "/" + type + " #" + getId() + ")";
+    }
+}
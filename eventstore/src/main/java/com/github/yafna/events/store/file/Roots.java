@@ -0,0 +1,72 @@
+package com.github.yafna.events.store.file;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Root directories of a {@link FileEventStore}, normally placed on different devices.
+ * <p>
+ * Every aggregate lives under a single root, picked by consistent hashing of its id, so that appends and replays
+ * of different aggregates are spread across the devices. Global events are spread by hour of their storage time.
+ * Thanks to consistent hashing adding a root to the end of the list relocates only its share of aggregates
+ * (see {@link LayoutMigration}). The order of roots thus matters and must not change.
+ */
+final class Roots {
+    static final Duration GLOBAL_BUCKET = Duration.ofHours(1);
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<Path> dirs;
+
+    Roots(List<Path> dirs) {
+        if (dirs.isEmpty()) {
+            throw new IllegalArgumentException("At least one root directory is required");
+        }
+        this.dirs = Collections.unmodifiableList(new ArrayList<>(dirs));
+    }
+
+    /**
+     * Parses comma separated list of root directories, as accepted by command line tools.
+     */
+    static List<File> parse(String dirs) {
+        return Arrays.stream(dirs.split(",")).map(File::new).collect(Collectors.toList());
+    }
+
+    List<Path> all() {
+        return dirs;
+    }
+
+    /**
+     * Root holding a given aggregate.
+     */
+    Path of(String aggregateId) {
+        return dirs.get(Hashing.consistentHash(HASH.hashString(aggregateId, StandardCharsets.UTF_8), dirs.size()));
+    }
+
+    /**
+     * Root holding global events stored at a given moment.
+     */
+    Path of(Instant stored) {
+        long bucket = Math.floorDiv(stored.getEpochSecond(), GLOBAL_BUCKET.getSeconds());
+        return dirs.get(Hashing.consistentHash(bucket, dirs.size()));
+    }
+
+    /**
+     * Root a given file belongs to.
+     */
+    Path containing(Path file) {
+        return dirs.stream().filter(file::startsWith).findFirst().orElseThrow(
+                () -> new IllegalArgumentException("Not within store roots: [" + String.valueOf(file) + "]")
+        );
+    }
+}
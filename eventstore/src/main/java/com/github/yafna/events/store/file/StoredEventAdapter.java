@@ -0,0 +1,98 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.store.StoredEvent;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Streaming Gson adapter of {@link StoredEvent}, replacing the reflective one along with the tree based
+ * {@link Instant} converter. Output is the same as theirs: fields in declaration order, nulls omitted
+ * and storage time in ISO-8601 format, so records written by either of them are read by the other.
+ */
+public class StoredEventAdapter extends TypeAdapter<StoredEvent> {
+
+    @Override
+    public void write(JsonWriter out, StoredEvent event) throws IOException {
+        if (event == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        string(out, "id", event.getId());
+        string(out, "aggregateId", event.getAggregateId());
+        if (event.getSeq() != null) {
+            out.name("seq").value(event.getSeq());
+        }
+        string(out, "corrId", event.getCorrId());
+        string(out, "causeId", event.getCauseId());
+        string(out, "origin", event.getOrigin());
+        string(out, "type", event.getType());
+        if (event.getStored() != null) {
+            out.name("stored").value(DateTimeFormatter.ISO_INSTANT.format(event.getStored()));
+        }
+        string(out, "payload", event.getPayload());
+        out.endObject();
+    }
+
+    @Override
+    public StoredEvent read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        StoredEvent event = new StoredEvent();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "id":
+                    event.setId(in.nextString());
+                    break;
+                case "aggregateId":
+                    event.setAggregateId(in.nextString());
+                    break;
+                case "seq":
+                    event.setSeq(in.nextLong());
+                    break;
+                case "corrId":
+                    event.setCorrId(in.nextString());
+                    break;
+                case "causeId":
+                    event.setCauseId(in.nextString());
+                    break;
+                case "origin":
+                    event.setOrigin(in.nextString());
+                    break;
+                case "type":
+                    event.setType(in.nextString());
+                    break;
+                case "stored":
+                    event.setStored(DateTimeFormatter.ISO_INSTANT.parse(in.nextString(), Instant::from));
+                    break;
+                case "payload":
+                    event.setPayload(in.nextString());
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return event;
+    }
+
+    private static void string(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.yafna.events.store.file;
+
+import com.github.yafna.events.Event;
+import lombok.AllArgsConstructor;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory index of events by origin, type and storage time, backing {@link FileEventStore#subscribe}.
+ * Origin is indexed on its first subscription, by reading the events stored after the moment the subscription
+ * asks for, and is kept up to date as events are written or followed (see {@link FileEventFollower}) from then on.
+ * A later subscription asking for an earlier moment reads the events missing from the index.
+ * Events are read outside of the lock writers take to index new events, so writers are not held up by a read
+ * of the whole origin. An event indexed twice meanwhile, once read and once written, is kept once.
+ * <p>
+ * Events are indexed by their location, a {@link Feed} entry, so that only the events returned
+ * to subscribers are read. At most {@code maxIndexed} events are kept per origin, the earliest ones are
+ * dropped beyond that and are read again should a subscription ask for them.
+ */
+class SubscriptionIndex {
+    private static final int DEFAULT_MAX_INDEXED = 64 * 1024;
+
+    private final Map<String, Origin> origins = new ConcurrentHashMap<>();
+    private final int maxIndexed;
+
+    SubscriptionIndex() {
+        this(DEFAULT_MAX_INDEXED);
+    }
+
+    SubscriptionIndex(int maxIndexed) {
+        this.maxIndexed = maxIndexed;
+    }
+
+    /**
+     * Returns the events of a type stored at the earliest moment after a given one or, if there are none,
+     * subscribes the callback to events of the type stored from now on.
+     *
+     * @param load reads events of the origin stored after a given moment, passing them along with their locations,
+     *        it may pass earlier events as well
+     * @param locate reads event at a location
+     * @return events stored at the earliest moment, or null if the callback has been subscribed
+     */
+    List<Event> subscribe(
+            String origin, String type, Instant since, Consumer<Event> callback,
+            BiConsumer<Instant, BiConsumer<Event, String>> load, Function<String, Optional<Event>> locate
+    ) {
+        Origin indexed = origins.computeIfAbsent(origin, o -> new Origin());
+        for (Origin loaded = null; ; ) {
+            synchronized (indexed) {
+                if (loaded != null) {
+                    indexed.merge(loaded, since);
+                }
+                if (indexed.covers(since)) {
+                    try {
+                        return find(indexed, type, since, callback, locate);
+                    } finally {
+                        indexed.trim(maxIndexed);
+                    }
+                }
+            }
+            Origin read = new Origin();
+            load.accept(since, (event, location) -> {
+                if (event.getStored().isAfter(since)) {
+                    read.put(event.getType(), event.getStored(), event.getId(), location);
+                }
+            });
+            loaded = read;
+        }
+    }
+
+    private static List<Event> find(
+            Origin indexed, String type, Instant since, Consumer<Event> callback,
+            Function<String, Optional<Event>> locate
+    ) {
+        NavigableMap<Instant, Map<String, String>> times = indexed.types.getOrDefault(type, Collections.emptyNavigableMap());
+        for (Map<String, String> locations : times.tailMap(since, false).values()) {
+            List<Event> events = locations.values().stream().map(locate).filter(Optional::isPresent).map(
+                    Optional::get
+            ).collect(Collectors.toList());
+            if (!events.isEmpty()) {
+                return events;
+            }
+        }
+        indexed.subscriptions.add(new Subscription(type, callback));
+        return null;
+    }
+
+    /**
+     * Indexes a new event, if its origin is indexed.
+     *
+     * @return callbacks to be notified of the event
+     */
+    List<Consumer<Event>> add(Event event, String location) {
+        Origin indexed = origins.get(event.getOrigin());
+        if (indexed == null) {
+            return Collections.emptyList();
+        }
+        synchronized (indexed) {
+            indexed.put(event.getType(), event.getStored(), event.getId(), location);
+            indexed.trim(maxIndexed);
+            return indexed.subscriptions.stream().filter(s -> s.type.equals(event.getType())).map(
+                    s -> s.callback
+            ).collect(Collectors.toList());
+        }
+    }
+
+    boolean isIndexed(String origin) {
+        return origins.containsKey(origin);
+    }
+
+    /**
+     * Number of events indexed for an origin.
+     */
+    int size(String origin) {
+        Origin indexed = origins.get(origin);
+        if (indexed == null) {
+            return 0;
+        }
+        synchronized (indexed) {
+            return indexed.size;
+        }
+    }
+
+    private static class Origin {
+        private final Map<String, NavigableMap<Instant, Map<String, String>>> types = new HashMap<>();
+        /**
+         * Types of the events stored at a moment, ordering events of all types for {@link #trim(int)}
+         */
+        private final NavigableMap<Instant, Set<String>> times = new TreeMap<>();
+        private final List<Subscription> subscriptions = new ArrayList<>();
+        private int size;
+        /**
+         * Moment all events stored after which are indexed, null until events have been read
+         */
+        private Instant from;
+
+        private boolean covers(Instant since) {
+            return from != null && !since.isBefore(from);
+        }
+
+        /**
+         * Events are keyed by id, so that an event indexed twice while the origin is being read is kept once.
+         */
+        private void put(String type, Instant stored, String id, String location) {
+            Map<String, String> locations = types.computeIfAbsent(type, t -> new TreeMap<>()).computeIfAbsent(
+                    stored, t -> new LinkedHashMap<>()
+            );
+            if (locations.put(id, location) == null) {
+                times.computeIfAbsent(stored, t -> new HashSet<>()).add(type);
+                size++;
+            }
+        }
+
+        /**
+         * Adds events read from the store, all of those stored after a given moment.
+         */
+        private void merge(Origin read, Instant since) {
+            read.types.forEach((type, times) -> times.forEach((stored, locations) -> locations.forEach(
+                    (id, location) -> put(type, stored, id, location)
+            )));
+            from = from == null || since.isBefore(from) ? since : from;
+        }
+
+        /**
+         * Drops the earliest events beyond a given number. Events stored at the same moment are dropped together.
+         */
+        private void trim(int max) {
+            while (size > max) {
+                Map.Entry<Instant, Set<String>> earliest = times.pollFirstEntry();
+                for (String type : earliest.getValue()) {
+                    NavigableMap<Instant, Map<String, String>> byTime = types.get(type);
+                    size -= byTime.remove(earliest.getKey()).size();
+                    if (byTime.isEmpty()) {
+                        types.remove(type);
+                    }
+                }
+                if (from != null && earliest.getKey().isAfter(from)) {
+                    from = earliest.getKey();
+                }
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Subscription {
+        private final String type;
+        private final Consumer<Event> callback;
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.yafna.events.store.file;
+
+import java.io.Reader;
+
+/**
+ * Reader decoding UTF-8 straight from a byte array, without the intermediate byte buffer and decoder
+ * that come with {@link java.io.InputStreamReader}. Malformed sequences are replaced with U+FFFD.
+ */
+final class Utf8Reader extends Reader {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+    private char lowSurrogate;
+
+    Utf8Reader(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        int n = 0;
+        if (lowSurrogate != 0 && n < length) {
+            buffer[offset + n++] = lowSurrogate;
+            lowSurrogate = 0;
+        }
+        while (n < length && position < end) {
+            int b = bytes[position] & 0xff;
+            if (b < 0x80) {
+                buffer[offset + n++] = (char) b;
+                position++;
+                continue;
+            }
+            int codePoint = decode(b);
+            if (codePoint < 0) {
+                buffer[offset + n++] = REPLACEMENT;
+            } else if (Character.isSupplementaryCodePoint(codePoint)) {
+                buffer[offset + n++] = Character.highSurrogate(codePoint);
+                if (n < length) {
+                    buffer[offset + n++] = Character.lowSurrogate(codePoint);
+                } else {
+                    lowSurrogate = Character.lowSurrogate(codePoint);
+                }
+            } else {
+                buffer[offset + n++] = (char) codePoint;
+            }
+        }
+        return n == 0 && length > 0 ? -1 : n;
+    }
+
+    /**
+     * Decodes a multi-byte sequence starting at current position and moves past it.
+     *
+     * @return code point, or -1 if sequence is malformed
+     */
+    private int decode(int lead) {
+        int size;
+        int codePoint;
+        if ((lead & 0xe0) == 0xc0) {
+            size = 2;
+            codePoint = lead & 0x1f;
+        } else if ((lead & 0xf0) == 0xe0) {
+            size = 3;
+            codePoint = lead & 0x0f;
+        } else if ((lead & 0xf8) == 0xf0) {
+            size = 4;
+            codePoint = lead & 0x07;
+        } else {
+            position++;
+            return -1;
+        }
+        for (int i = 1; i < size; i++) {
+            if (position + i >= end || (bytes[position + i] & 0xc0) != 0x80) {
+                position += i;
+                return -1;
+            }
+            codePoint = codePoint << 6 | bytes[position + i] & 0x3f;
+        }
+        position += size;
+        return codePoint;
+    }
+
+    @Override
+    public void close() {
+    }
+}
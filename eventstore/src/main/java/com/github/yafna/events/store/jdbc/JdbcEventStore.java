@@ -0,0 +1,423 @@
+package com.github.yafna.events.store.jdbc;
+
+import com.github.yafna.events.Event;
+import com.github.yafna.events.store.ConcurrentAppendException;
+import com.github.yafna.events.store.EventStore;
+import com.github.yafna.events.store.IdGenerator;
+import com.github.yafna.events.store.NewEvent;
+import com.github.yafna.events.store.StoredEvent;
+import com.github.yafna.events.store.TimeOrderedIdGenerator;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.MessageFormat;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@link EventStore} keeping events in a single table of a relational database,
+ * meant for embedded ones such as H2 or SQLite.
+ * <p>
+ * Seq numbers are guarded by a unique (origin, aggregate_id, seq) constraint,
+ * so concurrent writers of the same aggregate - even in different processes - can not both succeed.
+ * Writes go through a single connection with prepared statements created once and reused,
+ * events of a batch are inserted with a single JDBC batch in one transaction.
+ * Reads use a connection of their own and stream rows with a cursor, which is released
+ * once the stream is exhausted or closed.
+ */
+@Slf4j
+public class JdbcEventStore implements EventStore, Closeable {
+    private static final int FETCH_SIZE = 256;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final String COLUMNS = "id, origin, aggregate_id, seq, type, payload, cause_id, corr_id, stored_sec, stored_nano";
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS events ("
+                    + "id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                    + "origin VARCHAR(255) NOT NULL, "
+                    + "aggregate_id VARCHAR(255), "
+                    + "seq BIGINT, "
+                    + "type VARCHAR(255) NOT NULL, "
+                    + "payload CLOB, "
+                    + "cause_id VARCHAR(255), "
+                    + "corr_id VARCHAR(255), "
+                    + "stored_sec BIGINT NOT NULL, "
+                    + "stored_nano INT NOT NULL, "
+                    + "CONSTRAINT events_seq UNIQUE (origin, aggregate_id, seq))",
+            "CREATE INDEX IF NOT EXISTS events_type ON events (origin, type, stored_sec, stored_nano)"
+    };
+    private static final String INSERT = "INSERT INTO events (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String LAST_SEQ = "SELECT MAX(seq) FROM events WHERE origin = ? AND aggregate_id = ?";
+    private static final String SELECT_AGGREGATE = "SELECT " + COLUMNS + " FROM events "
+            + "WHERE origin = ? AND aggregate_id = ? AND seq > ? ORDER BY seq";
+    private static final String SELECT_ID = "SELECT " + COLUMNS + " FROM events WHERE id = ? AND origin = ?";
+    private static final String SELECT_GLOBAL = "SELECT " + COLUMNS + " FROM events "
+            + "WHERE origin = ? AND aggregate_id IS NULL ORDER BY stored_sec, stored_nano, id";
+    private static final String SELECT_SINCE = "SELECT " + COLUMNS + " FROM events "
+            + "WHERE origin = ? AND type = ? AND (stored_sec > ? OR stored_sec = ? AND stored_nano > ?) "
+            + "ORDER BY stored_sec, stored_nano, id";
+
+    protected Clock clock;
+    private final DataSource dataSource;
+    private final Connection writer;
+    private final PreparedStatement insert;
+    private final PreparedStatement lastSeq;
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    @Setter
+    private IdGenerator idGenerator = new TimeOrderedIdGenerator();
+
+    /**
+     * Creates the store, along with its table unless it exists.
+     *
+     * @param dataSource source of connections to the database, one of them is held open until {@link #close()}
+     */
+    public JdbcEventStore(Clock clock, DataSource dataSource) {
+        this.clock = clock;
+        this.dataSource = dataSource;
+        try {
+            this.writer = dataSource.getConnection();
+            try (Statement statement = writer.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            writer.setAutoCommit(false);
+            this.insert = writer.prepareStatement(INSERT);
+            this.lastSeq = writer.prepareStatement(LAST_SEQ);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to initialize event store", e);
+        }
+    }
+
+    @Override
+    public Stream<Event> getEvents(String origin, String aggregateId, Long fromSeq) {
+        return aggregateId == null ? query(SELECT_GLOBAL, origin) : query(
+                SELECT_AGGREGATE, origin, aggregateId, fromSeq == null ? -1L : fromSeq
+        );
+    }
+
+    @Override
+    public List<Event> subscribe(String origin, String type, Instant since, Consumer<Event> callback) {
+        synchronized (writer) {
+            List<Event> events;
+            try (Stream<Event> after = query(
+                    SELECT_SINCE, origin, type, since.getEpochSecond(), since.getEpochSecond(), since.getNano()
+            )) {
+                events = first(after.iterator());
+            }
+            if (events.isEmpty()) {
+                subscriptions.add(new Subscription(origin, type, callback));
+                return null;
+            }
+            return events;
+        }
+    }
+
+    @Override
+    public Persister persist(String aggregateId) {
+        return persist(null, null, aggregateId);
+    }
+
+    @Override
+    public Persister persist(String causeId, String corrId, String aggregateId) {
+        return (origin, type, payload) -> appendBatch(
+                origin, aggregateId, null, Collections.singletonList(new NewEvent(type, payload, causeId, corrId))
+        ).get(0);
+    }
+
+    @Override
+    public Persister persist(String causeId, String corrId) {
+        return persist(causeId, corrId, null);
+    }
+
+    @Override
+    public Persister persist() {
+        return persist(null, null, null);
+    }
+
+    /**
+     * Looks the event id up by primary key before appending, while holding the writer, so that writers of this
+     * store do not race each other. A concurrent writer in another process is rejected by the primary key.
+     */
+    @Override
+    public Persister persistOnce(String eventId, String causeId, String corrId, String aggregateId) {
+        Persister append = EventStore.super.persistOnce(eventId, causeId, corrId, aggregateId);
+        return (origin, type, payload) -> {
+            synchronized (writer) {
+                try (Stream<Event> stored = query(SELECT_ID, eventId, origin)) {
+                    Optional<Event> event = stored.findFirst();
+                    if (event.isPresent()) {
+                        log.debug("Event [{}/{}] has been stored already", origin, eventId);
+                        return event.get();
+                    }
+                }
+                return append.apply(origin, type, payload);
+            }
+        };
+    }
+
+    /**
+     * Inserts the events in a single transaction. If another writer has taken the seq numbers
+     * in the meantime, the append is retried, unless the seq numbers are expected.
+     */
+    @Override
+    public List<Event> appendBatch(String origin, String aggregateId, Long expectedSeq, List<NewEvent> events) {
+        List<StoredEvent> created = events.stream().map(e -> create(origin, aggregateId, e)).collect(Collectors.toList());
+        if (created.isEmpty()) {
+            return Collections.emptyList();
+        }
+        synchronized (writer) {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    insert(origin, aggregateId, expectedSeq, created);
+                    break;
+                } catch (SQLException e) {
+                    rollback();
+                    if (!isSeqConflict(e, origin, aggregateId, created)) {
+                        throw new IllegalStateException("Unable to append events to [" + origin + "/" + aggregateId + "]", e);
+                    } else if (expectedSeq != null || attempt == MAX_ATTEMPTS) {
+                        throw new ConcurrentAppendException(MessageFormat.format(
+                                "Aggregate [{0}/{1}] has been appended concurrently", origin, aggregateId
+                        ), e);
+                    }
+                    log.debug("Conflicting append to [{}/{}], retrying", origin, aggregateId);
+                }
+            }
+        }
+        created.forEach(this::notify);
+        return new ArrayList<>(created);
+    }
+
+    private void insert(String origin, String aggregateId, Long expectedSeq, List<StoredEvent> events) throws SQLException {
+        if (aggregateId != null) {
+            long next = lastSeq(origin, aggregateId) + 1;
+            if (expectedSeq != null && expectedSeq != next) {
+                rollback();
+                throw new ConcurrentAppendException(MessageFormat.format(
+                        "Aggregate [{0}/{1}] continues with seq {2,number,#}, expected {3,number,#}", origin, aggregateId, next, expectedSeq
+                ));
+            }
+            for (StoredEvent event : events) {
+                event.setSeq(next++);
+            }
+        }
+        for (StoredEvent event : events) {
+            bind(insert, event);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        writer.commit();
+    }
+
+    private long lastSeq(String origin, String aggregateId) throws SQLException {
+        lastSeq.setString(1, origin);
+        lastSeq.setString(2, aggregateId);
+        try (ResultSet rs = lastSeq.executeQuery()) {
+            rs.next();
+            long last = rs.getLong(1);
+            return rs.wasNull() ? -1 : last;
+        }
+    }
+
+    private StoredEvent create(String origin, String aggregateId, NewEvent e) {
+        StoredEvent event = new StoredEvent();
+        event.setId(e.getId() == null ? idGenerator.generate() : e.getId());
+        event.setOrigin(origin);
+        event.setAggregateId(aggregateId);
+        event.setType(e.getType());
+        event.setStored(e.getStored() == null ? clock.instant() : e.getStored());
+        event.setPayload(e.getPayload());
+        event.setCauseId(e.getCauseId());
+        event.setCorrId(e.getCorrId());
+        return event;
+    }
+
+    private void notify(Event event) {
+        subscriptions.stream().filter(s -> s.matches(event)).forEach(s -> s.callback.accept(event));
+    }
+
+    /**
+     * Events stored at the earliest moment, all of them.
+     */
+    private static List<Event> first(Iterator<Event> events) {
+        List<Event> result = new ArrayList<>();
+        while (events.hasNext()) {
+            Event event = events.next();
+            if (!result.isEmpty() && !event.getStored().equals(result.get(0).getStored())) {
+                break;
+            }
+            result.add(event);
+        }
+        return result;
+    }
+
+    private Stream<Event> query(String sql, Object... params) {
+        Cursor cursor = null;
+        try {
+            cursor = new Cursor(dataSource.getConnection());
+            PreparedStatement statement = cursor.prepare(sql);
+            for (int i = 0; i < params.length; i++) {
+                statement.setObject(i + 1, params[i]);
+            }
+            statement.setFetchSize(FETCH_SIZE);
+            cursor.open(statement.executeQuery());
+            return StreamSupport.stream(cursor, false).onClose(cursor::close);
+        } catch (SQLException e) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            throw new IllegalStateException("Unable to query events", e);
+        }
+    }
+
+    private static void bind(PreparedStatement statement, StoredEvent event) throws SQLException {
+        statement.setString(1, event.getId());
+        statement.setString(2, event.getOrigin());
+        statement.setString(3, event.getAggregateId());
+        if (event.getSeq() == null) {
+            statement.setNull(4, Types.BIGINT);
+        } else {
+            statement.setLong(4, event.getSeq());
+        }
+        statement.setString(5, event.getType());
+        statement.setString(6, event.getPayload());
+        statement.setString(7, event.getCauseId());
+        statement.setString(8, event.getCorrId());
+        statement.setLong(9, event.getStored().getEpochSecond());
+        statement.setInt(10, event.getStored().getNano());
+    }
+
+    private static StoredEvent read(ResultSet rs) throws SQLException {
+        StoredEvent event = new StoredEvent();
+        event.setId(rs.getString(1));
+        event.setOrigin(rs.getString(2));
+        event.setAggregateId(rs.getString(3));
+        long seq = rs.getLong(4);
+        event.setSeq(rs.wasNull() ? null : seq);
+        event.setType(rs.getString(5));
+        event.setPayload(rs.getString(6));
+        event.setCauseId(rs.getString(7));
+        event.setCorrId(rs.getString(8));
+        event.setStored(Instant.ofEpochSecond(rs.getLong(9), rs.getInt(10)));
+        return event;
+    }
+
+    /**
+     * Tells a violation of the (origin, aggregate_id, seq) constraint from other ones, such as a clash of event ids,
+     * by checking whether the seq numbers assigned to the events have been taken. Unique constraint violations
+     * belong to SQL state class 23 (integrity constraint violation), but drivers report the violated constraint
+     * in messages of their own, so it is not looked up by name.
+     */
+    private boolean isSeqConflict(SQLException e, String origin, String aggregateId, List<StoredEvent> events) {
+        if (aggregateId == null || e.getSQLState() == null || !e.getSQLState().startsWith("23")) {
+            return false;
+        }
+        try {
+            return lastSeq(origin, aggregateId) >= events.get(0).getSeq();
+        } catch (SQLException check) {
+            log.warn("Unable to check seq of [{}/{}]: {}", origin, aggregateId, check.getMessage());
+            return false;
+        }
+    }
+
+    private void rollback() {
+        try {
+            writer.rollback();
+        } catch (SQLException e) {
+            log.warn("Unable to roll back: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (writer) {
+            try {
+                writer.close();
+            } catch (SQLException e) {
+                throw new IllegalStateException("Unable to close event store", e);
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class Subscription {
+        private final String origin;
+        private final String type;
+        private final Consumer<Event> callback;
+
+        boolean matches(Event event) {
+            return origin.equals(event.getOrigin()) && type.equals(event.getType());
+        }
+    }
+
+    /**
+     * Result set exposed as a stream, closed along with its connection once exhausted,
+     * as callers are not obliged to close the stream.
+     */
+    private static class Cursor extends Spliterators.AbstractSpliterator<Event> {
+        private final Connection connection;
+        private ResultSet rs;
+        private boolean closed;
+
+        Cursor(Connection connection) {
+            super(Long.MAX_VALUE, ORDERED | NONNULL);
+            this.connection = connection;
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            return connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+
+        void open(ResultSet rs) {
+            this.rs = rs;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Event> action) {
+            if (closed) {
+                return false;
+            }
+            try {
+                if (rs.next()) {
+                    action.accept(read(rs));
+                    return true;
+                }
+            } catch (SQLException e) {
+                close();
+                throw new IllegalStateException("Unable to read events", e);
+            }
+            close();
+            return false;
+        }
+
+        void close() {
+            if (!closed) {
+                closed = true;
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.warn("Unable to close connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.yafna.events.utils;
+
+import com.google.gson.TypeAdapterFactory;
+
+/**
+ * Gson adapter factory of {@link com.github.yafna.events.annotations.EvType} classes, generated at compile time
+ * by {@link com.github.yafna.events.annotations.processing.PayloadAdapterProcessor} and found by {@link Payloads}
+ * through {@link java.util.ServiceLoader}.
+ */
+public interface PayloadAdapterFactory extends TypeAdapterFactory {
+}
@@ -0,0 +1,113 @@
+package com.github.yafna.events.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.HashSet;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * Gson (de)serialization of event payloads through adapters generated for
+ * {@link com.github.yafna.events.annotations.EvType} classes at compile time, see {@link PayloadAdapterFactory}.
+ * Payload classes without a generated adapter are handled by Gson reflection, as before.
+ */
+public final class Payloads {
+    private static final Gson GSON = register(new GsonBuilder()).create();
+    /**
+     * Classes of the adapter plain Gson makes for a class of its own, i.e. of its reflective adapter,
+     * together with their superclasses, which later Gson versions share between reflective adapters of different kinds
+     */
+    private static final Set<Class<?>> REFLECTIVE = adapterClasses(new Gson().getAdapter(Probe.class));
+
+    private Payloads() {
+    }
+
+    /**
+     * Shared Gson instance with all generated adapters found on the class path.
+     */
+    public static Gson gson() {
+        return GSON;
+    }
+
+    /**
+     * Registers generated adapters found on the class path.
+     */
+    public static GsonBuilder register(GsonBuilder builder) {
+        ServiceLoader.load(PayloadAdapterFactory.class, Payloads.class.getClassLoader()).forEach(
+                builder::registerTypeAdapterFactory
+        );
+        return builder;
+    }
+
+    /**
+     * Getter of a field generated adapters can not access directly, looked up once per adapter class.
+     */
+    public static MethodHandle getter(Class<?> type, String field) {
+        try {
+            return MethodHandles.lookup().unreflectGetter(accessible(type, field));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access [" + type.getName() + "." + field + "]", e);
+        }
+    }
+
+    /**
+     * Setter of a field generated adapters can not access directly, looked up once per adapter class.
+     */
+    public static MethodHandle setter(Class<?> type, String field) {
+        try {
+            return MethodHandles.lookup().unreflectSetter(accessible(type, field));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to access [" + type.getName() + "." + field + "]", e);
+        }
+    }
+
+    /**
+     * Writes a non-null field value the way Gson reflection does, with the adapter of its runtime type
+     * unless that one is reflective and the adapter of the declared type is not.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> void write(Gson gson, TypeAdapter<T> declared, JsonWriter out, T value) throws IOException {
+        TypeAdapter<T> runtime = (TypeAdapter<T>) gson.getAdapter(value.getClass());
+        if (runtime == declared || isReflective(runtime) && !isReflective(declared)) {
+            declared.write(out, value);
+        } else {
+            runtime.write(out, value);
+        }
+    }
+
+    private static boolean isReflective(TypeAdapter<?> adapter) {
+        return adapterClasses(adapter).stream().anyMatch(REFLECTIVE::contains);
+    }
+
+    private static Set<Class<?>> adapterClasses(TypeAdapter<?> adapter) {
+        Set<Class<?>> classes = new HashSet<>();
+        for (Class<?> type = adapter.getClass(); type != TypeAdapter.class; type = type.getSuperclass()) {
+            classes.add(type);
+        }
+        return classes;
+    }
+
+    private static Field accessible(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("No field [" + name + "] in [" + type.getName() + "]", e);
+        }
+    }
+
+    /**
+     * Class with no adapter of its own, for Gson to handle by reflection
+     */
+    private static final class Probe {
+        private int value;
+    }
+}
@@ -8,9 +8,16 @@ import com.github.yafna.events.rabbits.RabbitAdded
 import com.github.yafna.events.rabbits.RabbitInit
 import com.github.yafna.events.rabbits.RabbitNameUpdated
 import com.github.yafna.events.store.file.GsonFileEventStore
+import com.github.yafna.events.store.EventStore
+import com.fatboyindustrial.gsonjavatime.Converters
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
 import spock.lang.Specification
 
 import java.time.Clock
+import java.time.Instant
+import java.time.ZoneOffset
+import java.util.function.UnaryOperator
 
 class AggregatePipelineSpec extends Specification {
 
@@ -54,6 +61,23 @@ class AggregatePipelineSpec extends Specification {
             scotty.name == "Scotty"
     }
 
+    def "push all"() {
+        given:
+            AggregatePipeline<Rabbit> subj = new AggregatePipeline(Rabbit.class, store, index, handlers, {
+                new Rabbit(it)
+            })
+        when:
+            List<Event> events = subj.pushAll("ABCD-1237", [new RabbitAdded("Kirk", "Captain's key"), new RabbitNameUpdated("Spock")])
+        then:
+            events.collect { it.seq } == [0L, 1L]
+        when:
+            Rabbit spock = subj.get("ABCD-1237")
+        then:
+            spock.name == "Spock"
+            spock.publicKey == "Captain's key"
+            spock.lastEvent.get() == 1L
+    }
+
     def "init and push"() {
         given:
             AggregatePipeline<Rabbit> subj = new AggregatePipeline(Rabbit.class, store, index, handlers, {
@@ -70,4 +94,69 @@ class AggregatePipelineSpec extends Specification {
             kirk.publicKey == null
     }
 
+    def "should read aggregate as of a past seq or moment without touching the live one"() {
+        given:
+            AggregatePipeline<Rabbit> subj = new AggregatePipeline(Rabbit.class, store, index, handlers, {
+                new Rabbit(it)
+            })
+            if (snapshots) {
+                subj.setSnapshots(copier, 2)
+            }
+            pushAt(subj, 0, new RabbitAdded("Kirk", "Captain's key"))
+            (1..5).each { pushAt(subj, it, new RabbitNameUpdated("name$it")) }
+            Rabbit live = subj.get("ABCD-1238")
+        expect:
+            subj.get("ABCD-1238", -1L).name == null
+            subj.get("ABCD-1238", 0L).name == "Kirk"
+            subj.get("ABCD-1238", 3L).name == "name3"
+            subj.get("ABCD-1238", 3L).lastEvent.get() == 3L
+            subj.get("ABCD-1238", 100L).name == "name5"
+            subj.get("ABCD-1238", hour(4)).name == "name4"
+            subj.get("ABCD-1238", hour(4).plusSeconds(1800)).name == "name4"
+            subj.get("ABCD-1238", hour(-1)).name == null
+        and:
+            subj.get("ABCD-1238").is(live)
+            live.name == "name5"
+            !subj.get("ABCD-1238", 2L).is(subj.get("ABCD-1238", 2L))
+        where:
+            snapshots << [false, true]
+    }
+
+    def "given snapshots should replay only events after the nearest earlier one"() {
+        given:
+            AggregatePipeline<Rabbit> writer = new AggregatePipeline(Rabbit.class, store, index, handlers, {
+                new Rabbit(it)
+            })
+            pushAt(writer, 0, new RabbitAdded("Kirk", "Captain's key"))
+            (1..5).each { pushAt(writer, it, new RabbitNameUpdated("name$it")) }
+            List<Long> reads = []
+            EventStore recording = [getEvents: { String origin, String id, Long fromSeq ->
+                reads << fromSeq
+                store.getEvents(origin, id, fromSeq)
+            }] as EventStore
+            AggregatePipeline<Rabbit> subj = new AggregatePipeline(Rabbit.class, recording, index, handlers, {
+                new Rabbit(it)
+            })
+            subj.setSnapshots(copier, 2)
+        when:
+            Rabbit name4 = subj.get("ABCD-1238", 4L)
+            name4.updateName(new RabbitNameUpdated("Changed by caller"))
+        then:
+            subj.get("ABCD-1238", 5L).name == "name5"
+            subj.get("ABCD-1238", 3L).name == "name3"
+            subj.get("ABCD-1238", 4L).name == "name4"
+            reads == [-1L, 4L, 3L, 4L]
+    }
+
+    private static final Gson gson = Converters.registerAll(new GsonBuilder()).create()
+    private static final UnaryOperator<Rabbit> copier = { Rabbit r -> gson.fromJson(gson.toJson(r), Rabbit) }
+
+    private void pushAt(AggregatePipeline<Rabbit> subj, int at, Object event) {
+        store.clock = Clock.fixed(hour(at), ZoneOffset.UTC)
+        subj.push("ABCD-1238", event)
+    }
+
+    private static Instant hour(int hour) {
+        return Instant.parse("2002-05-19T00:00:00Z").plusSeconds(3600 * hour)
+    }
 }
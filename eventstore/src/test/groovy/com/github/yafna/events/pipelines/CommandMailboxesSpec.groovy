@@ -0,0 +1,141 @@
+package com.github.yafna.events.pipelines
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.aggregate.EventScanner
+import com.github.yafna.events.rabbits.Rabbit
+import com.github.yafna.events.rabbits.RabbitAdded
+import com.github.yafna.events.rabbits.RabbitNameUpdated
+import com.github.yafna.events.store.EventStore
+import com.github.yafna.events.store.NewEvent
+import com.github.yafna.events.store.file.GsonFileEventStore
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.time.Clock
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class CommandMailboxesSpec extends Specification {
+    File root = File.createTempDir()
+    GsonFileEventStore store = new GsonFileEventStore(Clock.systemUTC(), root)
+    AggregatePipeline<Rabbit> pipeline = new AggregatePipeline(
+            Rabbit.class, store, EventScanner.events(Rabbit), EventScanner.handlers(Rabbit), { new Rabbit(it) }
+    )
+    List<Runnable> tasks = []
+    Executor manual = { Runnable task -> tasks << task } as Executor
+
+    def "should execute queued commands in batches, each stored with a single append"() {
+        given:
+            CommandMailboxes<Rabbit> subj = new CommandMailboxes<>(pipeline, Clock.systemUTC(), manual, 3)
+            List<CompletableFuture<List<Event>>> results = [subj.submit("ABCD-1234", { [new RabbitAdded("Kirk", "key")] })]
+            results += (1..4).collect { int i -> subj.submit("ABCD-1234", { Rabbit r -> [new RabbitNameUpdated(r.name + i)] }) }
+        when:
+            while (tasks) {
+                tasks.remove(0).run()
+            }
+        then: "every command sees the events of the ones before it"
+            results.collect { it.get()[0].seq } == (0L..4L)
+            pipeline.get("ABCD-1234").name == "Kirk1234"
+            store.getEvents("rabbit", "ABCD-1234", null).collect { it.id } == results.collect { it.get()[0].id }
+        and:
+            Files.list(root.toPath().resolve("rabbit").resolve("ABCD-1234")).collect {
+                it.fileName.toString()
+            }.findAll { it.endsWith(".pack") }.sort() == ["00000000-00000002.pack", "00000003-00000004.pack"]
+    }
+
+    def "given rejected command should fail it alone"() {
+        given:
+            CommandMailboxes<Rabbit> subj = new CommandMailboxes<>(pipeline, Clock.systemUTC(), manual, 10)
+            def added = subj.submit("ABCD-1235", { [new RabbitAdded("Kirk", "key")] })
+            def rejected = subj.submit("ABCD-1235", { throw new IllegalArgumentException("Not a captain") })
+            def renamed = subj.submit("ABCD-1235", { [new RabbitNameUpdated("Spock")] })
+        when:
+            tasks.remove(0).run()
+        then:
+            added.get()*.seq == [0L]
+            renamed.get()*.seq == [1L]
+        when:
+            rejected.get()
+        then:
+            ExecutionException e = thrown()
+            e.cause.message == "Not a captain"
+    }
+
+    def "should keep aggregate consistent under concurrent commands"() {
+        given:
+            def executor = Executors.newFixedThreadPool(4)
+            CommandMailboxes<Rabbit> subj = new CommandMailboxes<>(pipeline, Clock.systemUTC(), executor, 16)
+            subj.submit("ABCD-1236", { [new RabbitAdded("Kirk", "key")] }).get()
+        when:
+            List<CompletableFuture<List<Event>>> results = (1..100).collect { int i ->
+                CompletableFuture.supplyAsync({ subj.submit("ABCD-1236", { [new RabbitNameUpdated("name$i")] }) }, executor)
+            }.collect { it.get() }
+            results.each { it.get(10, TimeUnit.SECONDS) }
+        then:
+            results.collect { it.get()[0].seq }.sort() == (1L..100L).toList()
+            store.getEvents("rabbit", "ABCD-1236", null).count() == 101
+        cleanup:
+            executor.shutdown()
+    }
+
+    def "should not expose events of a batch to readers before they are stored"() {
+        given:
+            CommandMailboxes<Rabbit> subj = new CommandMailboxes<>(pipeline, Clock.systemUTC(), manual, 10)
+            subj.submit("ABCD-1237", { [new RabbitAdded("Kirk", "key")] })
+            tasks.remove(0).run()
+            CountDownLatch executing = new CountDownLatch(1)
+            CountDownLatch release = new CountDownLatch(1)
+            def renamed = subj.submit("ABCD-1237", {
+                executing.countDown()
+                release.await()
+                [new RabbitNameUpdated("Spock")]
+            })
+            Thread worker = new Thread(tasks.remove(0))
+            worker.start()
+            executing.await()
+        when:
+            def read = CompletableFuture.supplyAsync({ pipeline.get("ABCD-1237").name })
+            Thread.sleep(100)
+        then:
+            !read.done
+        when:
+            release.countDown()
+        then:
+            read.get(10, TimeUnit.SECONDS) == "Spock"
+            renamed.get()*.seq == [1L]
+        cleanup:
+            worker.join()
+    }
+
+    def "given append failing for other reason than a conflict should not retry the batch"() {
+        given:
+            EventStore failing = [
+                    getEvents  : { String origin, String id, Long fromSeq -> store.getEvents(origin, id, fromSeq) },
+                    appendBatch: { String origin, String id, Long expectedSeq, List<NewEvent> events ->
+                        throw new IllegalStateException("Disk full")
+                    }
+            ] as EventStore
+            AggregatePipeline<Rabbit> broken = new AggregatePipeline(
+                    Rabbit.class, failing, EventScanner.events(Rabbit), EventScanner.handlers(Rabbit), { new Rabbit(it) }
+            )
+            CommandMailboxes<Rabbit> subj = new CommandMailboxes<>(broken, Clock.systemUTC(), manual, 10)
+            int executed = 0
+            def added = subj.submit("ABCD-1238", {
+                executed++
+                [new RabbitAdded("Kirk", "key")]
+            })
+        when:
+            tasks.remove(0).run()
+            added.get()
+        then:
+            ExecutionException e = thrown()
+            e.cause.message == "Disk full"
+            executed == 1
+        and: "cached aggregate holding the events not stored is evicted"
+            broken.get("ABCD-1238").lastEvent.get() == -1L
+    }
+}
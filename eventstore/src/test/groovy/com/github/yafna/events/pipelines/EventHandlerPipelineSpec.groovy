@@ -0,0 +1,119 @@
+package com.github.yafna.events.pipelines
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.aggregate.EventScanner
+import com.github.yafna.events.annotations.Handler
+import com.github.yafna.events.handlers.event.Emitter
+import com.github.yafna.events.handlers.event.EventHandler
+import com.github.yafna.events.rabbits.Rabbit
+import com.github.yafna.events.rabbits.RabbitNameUpdated
+import com.github.yafna.events.rabbits.RabbitPromotion
+import com.github.yafna.events.store.file.GsonFileEventStore
+import com.github.yafna.events.store.jdbc.JdbcEventStore
+import org.h2.jdbcx.JdbcDataSource
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+
+class EventHandlerPipelineSpec extends Specification {
+    GsonFileEventStore store = new GsonFileEventStore(Clock.systemUTC(), File.createTempDir())
+    Map<String, Class<?>> index = EventScanner.events(Rabbit)
+    def executor = Executors.newFixedThreadPool(4)
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def "should store emitted events caused by the handled one"() {
+        given:
+            EventHandlerPipeline subj = new EventHandlerPipeline(store, index, [new RabbitPromotion()].stream(), executor, 4)
+            Event added = store.persist(null, corrId, "ABCD-1234").apply("rabbit", "added", '{"name":"Kirk"}')
+        when:
+            List<Event> emitted = subj.dispatch(added).get(10, TimeUnit.SECONDS)
+        then:
+            emitted.size() == 1
+            emitted[0].causeId == added.id
+            emitted[0].corrId == (corrId ?: added.id)
+            store.getEvents("rabbit", "ABCD-1234", 0L).collect { [it.type, it.payload] } == [
+                    ["name.updated", '{"name":"Captain Kirk"}']
+            ]
+        where:
+            corrId << [null, "voyage"]
+    }
+
+    def "should handle events with the same key in order"() {
+        given:
+            Recorder recorder = new Recorder()
+            EventHandlerPipeline subj = new EventHandlerPipeline(store, index, [recorder].stream(), executor, 100)
+            List<Event> events = (0..19).collect {
+                store.persist("ABCD-1234").apply("rabbit", "name.updated", "{\"name\":\"$it\"}")
+            }
+        when:
+            events.collect { subj.dispatch(it) }.each { it.get(10, TimeUnit.SECONDS) }
+        then:
+            recorder.names == (0..19)*.toString()
+    }
+
+    def "given pipeline at capacity should block dispatch until an event is handled"() {
+        given:
+            Recorder recorder = new Recorder(latch: new CountDownLatch(1))
+            EventHandlerPipeline subj = new EventHandlerPipeline(store, index, [recorder].stream(), executor, 2)
+            List<Event> events = (0..2).collect {
+                store.persist("ABCD-123$it").apply("rabbit", "name.updated", "{\"name\":\"$it\"}")
+            }
+            List<CompletableFuture<?>> first = [subj.dispatch(events[0]), subj.dispatch(events[1])]
+        when:
+            CompletableFuture<?> third = CompletableFuture.supplyAsync { subj.dispatch(events[2]) }
+            third.get(200, TimeUnit.MILLISECONDS)
+        then:
+            thrown(TimeoutException)
+        when:
+            recorder.latch.countDown()
+        then:
+            third.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS) == []
+            first*.get(10, TimeUnit.SECONDS) == [[], []]
+            recorder.names.toSorted() == ["0", "1", "2"]
+    }
+
+    def "should follow events from the store"() {
+        given:
+            JdbcEventStore jdbc = new JdbcEventStore(Clock.systemUTC(), new JdbcDataSource(
+                    url: "jdbc:h2:${File.createTempDir()}/events"
+            ))
+            EventHandlerPipeline subj = new EventHandlerPipeline(jdbc, index, [new RabbitPromotion()].stream(), executor, 4)
+            jdbc.persist("ABCD-1234").apply("rabbit", "added", '{"name":"Kirk"}')
+        when:
+            subj.follow("rabbit", Instant.EPOCH)
+            jdbc.persist("ABCD-1235").apply("rabbit", "added", '{"name":"Kirk"}')
+            jdbc.persist("ABCD-1236").apply("rabbit", "added", '{"name":"Spock"}')
+        then:
+            ["ABCD-1234", "ABCD-1235"].each { id ->
+                for (int i = 0; i < 100 && jdbc.getEvents("rabbit", id, 0L).count() == 0; i++) {
+                    Thread.sleep(50)
+                }
+                assert jdbc.getEvents("rabbit", id, 0L).collect { it.payload } == ['{"name":"Captain Kirk"}']
+            }
+            jdbc.getEvents("rabbit", "ABCD-1236", 0L).count() == 0
+        cleanup:
+            jdbc.close()
+    }
+
+    @Handler("name.updated")
+    static class Recorder implements EventHandler<RabbitNameUpdated> {
+        List<String> names = [].asSynchronized()
+        CountDownLatch latch = new CountDownLatch(0)
+
+        @Override
+        void handle(Event meta, RabbitNameUpdated payload, Emitter emitter) {
+            latch.await()
+            Thread.sleep(new Random().nextInt(5))
+            names << payload.name
+        }
+    }
+}
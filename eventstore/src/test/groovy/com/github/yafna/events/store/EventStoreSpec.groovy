@@ -0,0 +1,164 @@
+package com.github.yafna.events.store
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+/**
+ * Behaviour shared by all {@link EventStore} implementations.
+ */
+abstract class EventStoreSpec extends Specification {
+    protected final static String origin = "hedgehog"
+
+    String now = "2002-05-19T22:33:11Z"
+
+    Clock clock = Clock.fixed(Instant.parse(now), ZoneId.of("UTC"))
+    def subj
+
+    /**
+     * @return store under test, its clock must be settable as {@code clock} property
+     */
+    abstract EventStore createStore(Clock clock)
+
+    def setup() {
+        subj = createStore(clock)
+    }
+
+    def "given event should persist it and read event stream"() {
+        given:
+            String aggregateId = "43a0f882"
+            String type = "created"
+        when:
+            Event event = subj.persist(aggregateId).apply(origin, type, "12345")
+        then: "Newly created event has seq == 0"
+            event.seq == 0L
+        when:
+            def getEvents = { Long from ->
+                subj.getEvents(origin, aggregateId, from).collect({
+                    [it.origin, it.aggregateId, it.seq, it.id, it.type, it.stored]
+                })
+            }
+        then: "polling for all events on aggregate returns 1 event"
+            def instant = Instant.parse(now)
+            getEvents(null) == [[origin, aggregateId, 0, event.id, type, instant]]
+            getEvents(-1) == [[origin, aggregateId, 0, event.id, type, instant]]
+        and: "polling for events after seq=0 returns no event"
+            getEvents(0) == []
+        when:
+            Event event2 = subj.persist(aggregateId).apply(origin, type, "12345")
+        then: "polling for all events on aggregate returns 2 events"
+            getEvents(null) == [
+                    [origin, aggregateId, 0, event.id, type, instant],
+                    [origin, aggregateId, 1, event2.id, type, instant]
+            ]
+            getEvents(-1) == [
+                    [origin, aggregateId, 0, event.id, type, instant],
+                    [origin, aggregateId, 1, event2.id, type, instant]
+            ]
+        and: "polling for events after seq=0 returns 1 event"
+            getEvents(0) == [
+                    [origin, aggregateId, 1, event2.id, type, instant]
+            ]
+    }
+
+    def "given multiple events should persist and read them stream"() {
+        given:
+            def getEvents = { String aggregateId ->
+                subj.getEvents(origin, aggregateId, null).collect({
+                    [it.origin, it.aggregateId, it.id, it.type]
+                })
+            }
+        when:
+            Event global = subj.persist().apply(origin, "global", "12345")
+            Event one = subj.persist("111").apply(origin, "local", "111-123")
+            Event two = subj.persist("222").apply(origin, "local", "222-123")
+        then:
+            getEvents(null) == [[origin, null, global.id, "global"]]
+            getEvents("111") == [[origin, "111", one.id, "local"]]
+            getEvents("222") == [[origin, "222", two.id, "local"]]
+    }
+
+    def "given batch of events should append them after existing ones"() {
+        given:
+            String aggregateId = "43a0f882"
+            Event first = subj.persist(aggregateId).apply(origin, "created", "12345")
+        when:
+            List<Event> batch = subj.appendBatch(origin, aggregateId, [
+                    new NewEvent("updated", "1"), new NewEvent("updated", "2", first.id, first.id)
+            ])
+        then:
+            batch.collect { it.seq } == [1L, 2L]
+            batch[1].causeId == first.id
+            subj.getEvents(origin, aggregateId, null).collect { [it.seq, it.id, it.payload] } == [
+                    [0L, first.id, "12345"], [1L, batch[0].id, "1"], [2L, batch[1].id, "2"]
+            ]
+        and: "next event continues the sequence"
+            subj.persist(aggregateId).apply(origin, "updated", "3").seq == 3L
+    }
+
+    def "given unexpected seq batch append should fail and store nothing"() {
+        given:
+            String aggregateId = "43a0f882"
+            subj.persist(aggregateId).apply(origin, "created", "12345")
+        when:
+            subj.appendBatch(origin, aggregateId, 0L, [new NewEvent("updated", "1"), new NewEvent("updated", "2")])
+        then:
+            IllegalStateException e = thrown()
+            e.message.contains("continues with seq 1, expected 0")
+            subj.getEvents(origin, aggregateId, null).count() == 1
+    }
+
+    def "given retried persistOnce should return the original event and store it once"() {
+        given:
+            Event first = subj.persistOnce("e-1", aggregateId).apply(origin, "poked", "1")
+        when:
+            subj.clock = Clock.fixed(Instant.parse(now).plusSeconds(5), ZoneId.of("UTC"))
+            Event retried = subj.persistOnce("e-1", aggregateId).apply(origin, "poked", "1")
+            Event other = subj.persistOnce("e-2", aggregateId).apply(origin, "poked", "2")
+        then:
+            first.id == "e-1"
+            [retried.id, retried.seq, retried.stored] == [first.id, first.seq, first.stored]
+            subj.getEvents(origin, aggregateId, null).collect { it.id } == ["e-1", "e-2"]
+            other.seq == (aggregateId == null ? null : 1L)
+        where:
+            aggregateId << ["43a0f882", null]
+    }
+
+    @Unroll
+    def "given since = [#since] subscribe() should return #expected"() {
+        given:
+            Closure<Clock> setTime = { String date, String time ->
+                subj.clock = Clock.fixed(instant(date, time), ZoneId.of("UTC"))
+            }
+            Closure<Event> persist = { String time, String aggregateId, String type ->
+                setTime("2002-06-01", time)
+                return subj.persist(aggregateId).apply(origin, type, null)
+            }
+        and:
+            persist("05:30:00", "miles", "born")
+            persist("06:00:00", "sonic", "born")
+            persist("08:00:00", "sonic", "wake")
+            persist("08:30:00", "miles", "wake")
+            persist("09:15:00", "amy", "wake")
+            persist("09:00:00", "sonic", "run")
+            persist("09:30:00", "miles", "jump")
+            persist("11:30:00", "sonic", "eat")
+        and:
+            setTime("2002-06-01", "12:15:00")
+            def throwingCallback = { throw new RuntimeException("no callback invokation expected") }
+        when:
+            def result = subj.subscribe(origin, "wake", instant("2002-06-01", since), throwingCallback)
+        then:
+            result.collect({ [it.stored, it.aggregateId] }) == expected
+        where:
+            since | expected
+            '08:15:00' | [[instant("2002-06-01", '08:30:00'), "miles"]]
+            '08:30:00' | [[instant("2002-06-01", '09:15:00'), "amy"]]
+    }
+
+    protected static instant = { String date, String time -> Instant.parse(date + "T" + time + "Z") }
+}
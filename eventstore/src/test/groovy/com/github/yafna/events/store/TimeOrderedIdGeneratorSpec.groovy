@@ -0,0 +1,56 @@
+package com.github.yafna.events.store
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+class TimeOrderedIdGeneratorSpec extends Specification {
+
+    def "given the same millisecond should generate increasing ids"() {
+        given:
+            TimeOrderedIdGenerator subj = new TimeOrderedIdGenerator({ 1021847591000L })
+        when:
+            List<String> ids = (1..10000).collect { subj.generate() }
+        then:
+            ids == ids.toSorted()
+            ids.toSet().size() == ids.size()
+            ids.every { UUID.fromString(it).version() == 7 && UUID.fromString(it).variant() == 2 }
+    }
+
+    def "given clock going backwards should stay monotonic"() {
+        given:
+            List<Long> times = [2000L, 1000L, 3000L]
+            TimeOrderedIdGenerator subj = new TimeOrderedIdGenerator({ times.remove(0) })
+        when:
+            List<String> ids = (1..3).collect { subj.generate() }
+        then:
+            ids == ids.toSorted()
+    }
+
+    def "given later time should sort after earlier ids"() {
+        given:
+            long now = 1000L
+            TimeOrderedIdGenerator subj = new TimeOrderedIdGenerator({ now })
+        when:
+            String first = subj.generate()
+            now = 1001L
+            String second = new TimeOrderedIdGenerator({ now }).generate()
+        then:
+            first < second
+    }
+
+    def "given concurrent threads should generate unique ids"() {
+        given:
+            TimeOrderedIdGenerator subj = new TimeOrderedIdGenerator()
+            def executor = Executors.newFixedThreadPool(4)
+        when:
+            List<String> ids = executor.invokeAll((1..4).collect {
+                { -> (1..5000).collect { subj.generate() } } as Callable<List<String>>
+            }).collectMany { it.get() }
+        then:
+            ids.toSet().size() == 20000
+        cleanup:
+            executor.shutdown()
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+class CompactorSpec extends Specification {
+    private final static String origin = "hedgehog"
+    private final static String aggregateId = "43a0f882"
+
+    File root = File.createTempDir()
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+    FileEventStore store = new GsonFileEventStore(clock, root)
+    Compactor subj = new Compactor(store, 4, Double.MAX_VALUE)
+
+    def cleanup() {
+        subj.close()
+    }
+
+    def "given sealed ranges should pack them and keep the newest events loose"() {
+        given:
+            List<Event> events = (0..9).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+        when:
+            int created = subj.compact()
+        then:
+            created == 2
+            names() == ["00000000-00000003.pack", "00000004-00000007.pack", "00000008=${events[8].id}=poked.evt", "00000009=${events[9].id}=poked.evt"]
+        and: "events are read transparently"
+            store.getEvents(origin, aggregateId, null).collect { it.id } == events.collect { it.id }
+            store.getEvents(origin, aggregateId, 2).collect { it.seq } == (3L..9L)
+            store.getEvents(origin, aggregateId, 7).collect { it.seq } == [8L, 9L]
+    }
+
+    def "given compacted aggregate should continue seq after the archive"() {
+        given:
+            (0..4).each { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            subj.compact()
+            Path dir = root.toPath().resolve(origin).resolve(aggregateId)
+            Files.delete(dir.resolve(names().find { it.startsWith("00000004=") }))
+            Files.delete(dir.resolve(Manifest.INDEX))
+        when:
+            Event next = store.persist(aggregateId).apply(origin, "poked", "next")
+        then:
+            next.seq == 4L
+    }
+
+    def "given directory listed before compaction should read events from the archive"() {
+        given:
+            List<Event> events = (0..5).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            def stream = store.getEvents(origin, aggregateId, null)
+        when:
+            subj.compact()
+        then:
+            stream.collect { it.id } == events.collect { it.id }
+    }
+
+    def "given a range with missing events should not pack it"() {
+        given:
+            (0..3).each { store.persist(aggregateId).apply(origin, "poked", "$it") }
+        expect: "last event is never sealed"
+            subj.compact() == 0
+    }
+
+    def "given loose files left next to their archive should remove them on the next pass"() {
+        given: "a pass stopped after moving the archive into place"
+            List<Event> events = (0..5).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            Path dir = root.toPath().resolve(origin).resolve(aggregateId)
+            Map<String, byte[]> packed = names().findAll { it.startsWith("0000000") && it.endsWith(".evt") }.take(4)
+                    .collectEntries { [(it): Files.readAllBytes(dir.resolve(it))] }
+            subj.compact()
+            packed.each { name, bytes -> Files.write(dir.resolve(name), bytes) }
+        when:
+            int created = subj.compact()
+        then:
+            created == 0
+            names() == ["00000000-00000003.pack", "00000004=${events[4].id}=poked.evt", "00000005=${events[5].id}=poked.evt"]
+            store.getEvents(origin, aggregateId, null).collect { it.id } == events.collect { it.id }
+    }
+
+    private List<String> names() {
+        Path dir = root.toPath().resolve(origin).resolve(aggregateId)
+        return Files.list(dir).collect { it.fileName.toString() }.findAll { !it.startsWith(".") }.sort()
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.yafna.events.store.file
+
+import spock.lang.Specification
+
+class DedupIndexSpec extends Specification {
+
+    def "should remember the latest keys within the window"() {
+        given:
+            DedupIndex subj = new DedupIndex(3)
+        when:
+            (1..5).each { subj.put(it, "loc-$it".toString()) }
+        then:
+            (1..5).collect { subj.get(it) } == [null, null, "loc-3", "loc-4", "loc-5"]
+    }
+
+    def "should keep colliding keys reachable as others are evicted"() {
+        given: "keys sharing the same slot of the table"
+            int window = 16
+            DedupIndex subj = new DedupIndex(window)
+            List<Long> keys = (0..999).collect { it * 64L }
+        when:
+            keys.each { subj.put(it, String.valueOf(it)) }
+        then:
+            keys.takeRight(window).every { subj.get(it) == String.valueOf(it) }
+            keys.dropRight(window).every { subj.get(it) == null }
+    }
+
+    def "should agree with a map of the latest keys"() {
+        given:
+            int window = 100
+            DedupIndex subj = new DedupIndex(window)
+            Random random = new Random(42)
+            LinkedHashMap<Long, String> expected = new LinkedHashMap<>()
+        when:
+            10000.times {
+                long key = random.nextInt(500)
+                if (!expected.containsKey(key)) {
+                    if (expected.size() == window) {
+                        expected.remove(expected.keySet().first())
+                    }
+                }
+                expected.put(key, "v$it".toString())
+                subj.put(key, "v$it".toString())
+            }
+        then:
+            (0L..<500L).every { subj.get(it) == expected.get(it) }
+    }
+
+    def "should hash origin and id apart"() {
+        expect:
+            DedupIndex.key("ab", "c") != DedupIndex.key("a", "bc")
+            DedupIndex.key("a", "b") == DedupIndex.key("a", "b")
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+
+class EventRetentionSpec extends Specification {
+    private final static String origin = "timer"
+
+    File root = File.createTempDir()
+    Instant now = Instant.parse("2002-05-19T22:33:11Z")
+    FileEventStore store = new GsonFileEventStore(Clock.fixed(now, ZoneId.of("UTC")), root)
+    EventRetention subj = new EventRetention(store)
+
+    def cleanup() {
+        subj.close()
+    }
+
+    def "should drop events older than max age"() {
+        given:
+            List<Event> events = (0..9).collect { tick(it) }
+            subj.policy(origin, EventRetentionPolicy.maxAge(Duration.ofMinutes(3)))
+        when:
+            int expired = subj.enforce()
+        then: "events of minutes 0..5 are older than 3 minutes before minute 9"
+            expired == 6
+            hot().size() == 4
+            store.getEvents(origin, null, null).collect { it.id } == events[6..9]*.id
+            !Files.exists(cold())
+    }
+
+    def "should archive events beyond max count and keep reading them"() {
+        given:
+            List<Event> events = (0..9).collect { tick(it) }
+            subj.policy(origin, EventRetentionPolicy.maxCount(4).archived())
+        when:
+            int expired = subj.enforce()
+        then:
+            expired == 6
+            hot().size() == 4
+            FileEventStore.list(cold())*.fileName*.toString() == ["${name(events[5])}.gz".toString()]
+            store.getEvents(origin, null, null).collect { it.id } == events*.id
+            store.getEvents(origin, null, null).collect { it.payload } == (0..9).collect { "{\"n\":$it}".toString() }
+        when: "more events expire"
+            events += (10..11).collect { tick(it) }
+        then:
+            subj.enforce() == 2
+            FileEventStore.list(cold()).size() == 2
+            store.getEvents(origin, null, null).collect { it.id } == events*.id
+        and: "archived events are found by name"
+            store.readGlobal(origin, name(events[3])).get().id == events[3].id
+    }
+
+    def "given both max age and max count should expire events exceeding either"() {
+        given:
+            List<Event> events = (0..9).collect { tick(it) }
+        when:
+            subj.policy(origin, policy)
+        then:
+            subj.enforce() == expired
+            store.getEvents(origin, null, null).collect { it.id } == events[expired..9]*.id
+        where:
+            policy                                                                  | expired
+            EventRetentionPolicy.maxAge(Duration.ofMinutes(3)).andMaxCount(2)       | 8
+            EventRetentionPolicy.maxAge(Duration.ofMinutes(3)).andMaxCount(6)       | 6
+            EventRetentionPolicy.maxCount(6).andMaxAge(Duration.ofMinutes(1))       | 8
+    }
+
+    def "given pass interrupted after archiving should only remove the archived files"() {
+        given:
+            List<Event> events = (0..5).collect { tick(it) }
+            List<Path> files = hot()
+            ColdArchive.write(cold(), files[0..2].collect { new ColdArchive.Record(it.fileName.toString(), Files.readAllBytes(it)) })
+            subj.policy(origin, EventRetentionPolicy.maxCount(2).archived())
+        when:
+            subj.enforce()
+        then:
+            FileEventStore.list(cold()).size() == 2
+            store.getEvents(origin, null, null).collect { it.id } == events*.id
+    }
+
+    def "given stream listed before retention should read expired events from the cold archive"() {
+        given:
+            List<Event> events = (0..5).collect { tick(it) }
+            def stream = store.getEvents(origin, null, null)
+            subj.policy(origin, EventRetentionPolicy.maxCount(1).archived())
+        when:
+            subj.enforce()
+        then:
+            stream.collect { it.id } == events*.id
+    }
+
+    def "should leave aggregates and origins without policy alone"() {
+        given:
+            (0..3).each { store.persist("43a0f882").apply(origin, "poked", "$it") }
+            (0..3).each { tick(it, "heartbeat") }
+            subj.policy(origin, EventRetentionPolicy.maxCount(0))
+        expect:
+            subj.enforce() == 0
+            store.getEvents(origin, "43a0f882", null).count() == 4
+            store.getEvents("heartbeat", null, null).count() == 4
+    }
+
+    def "given member of consumer group lagging behind retention should skip dropped events"() {
+        given:
+            store.feedPartitions = 1
+            List<Event> events = (0..3).collect { tick(it) }
+            subj.policy(origin, EventRetentionPolicy.maxCount(2))
+            subj.enforce()
+            List<String> consumed = []
+        when:
+            store.group(origin, "ticks").join("first").poll(100, { consumed << it.id })
+        then:
+            consumed == events[2..3]*.id
+    }
+
+    private Event tick(int minute, String on = origin) {
+        store.clock = Clock.fixed(now.plus(Duration.ofMinutes(minute)), ZoneId.of("UTC"))
+        return store.persist().apply(on, "tick", "{\"n\":$minute}")
+    }
+
+    private List<Path> hot() {
+        return store.globalEvents(origin)
+    }
+
+    private Path cold() {
+        return store.coldDir(origin)
+    }
+
+    private static String name(Event event) {
+        return "${event.stored.toString().replace(':', '-')}=${event.id}=tick.evt"
+    }
+}
@@ -0,0 +1,160 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.ConsumerGroup
+import com.github.yafna.events.store.NewEvent
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.function.Consumer
+
+class FileConsumerGroupSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    Instant now = Instant.parse("2002-05-19T22:33:11Z")
+    FileEventStore store = new GsonFileEventStore(Clock.fixed(now, ZoneId.of("UTC")), File.createTempDir())
+
+    def setup() {
+        store.feedPartitions = 4
+    }
+
+    def "should split partitions between members, each consuming its events in order"() {
+        given:
+            List<Event> written = (0..19).collect { store.persist("hog-${it % 5}").apply(origin, "poked", "$it") }
+            written += store.appendBatch(origin, "hog-0", [new NewEvent("poked", "20"), new NewEvent("poked", "21")])
+            written += store.persist().apply(origin, "tick", "{}")
+            ConsumerGroup group = store.group(origin, "pokes")
+            ConsumerGroup.Member first = group.join("first")
+            ConsumerGroup.Member second = group.join("second")
+            Map<String, List<Event>> consumed = [first: [], second: []]
+        when:
+            first.poll(100, { consumed.first << it })
+            second.poll(100, { consumed.second << it })
+            first.poll(100, { consumed.first << it })
+        then: "each partition is owned by one member"
+            first.partitions() == [0, 2] as Set
+            second.partitions() == [1, 3] as Set
+        and: "every event is consumed once, those of an aggregate in seq order"
+            (consumed.first + consumed.second)*.id.sort() == written*.id.sort()
+            (consumed.first + consumed.second).findAll { it.aggregateId }.groupBy { it.aggregateId }.every { id, events ->
+                events*.seq == (0L..<events.size())
+            }
+            consumed.first*.aggregateId.disjoint(consumed.second*.aggregateId)
+    }
+
+    def "should continue from recorded offsets"() {
+        given:
+            (0..4).each { store.persist("hog").apply(origin, "poked", "$it") }
+            ConsumerGroup.Member member = store.group(origin, "pokes").join("first")
+            List<String> consumed = []
+            member.poll(3, { consumed << it.payload })
+            member.close()
+        when:
+            store.persist("hog").apply(origin, "poked", "5")
+            member = store.group(origin, "pokes").join("second")
+            member.poll(100, { consumed << it.payload })
+        then:
+            consumed == (0..5)*.toString()
+        when: "another group starts from the beginning"
+            List<String> other = []
+            store.group(origin, "audit").join("first").poll(100, { other << it.payload })
+        then:
+            other == (0..5)*.toString()
+    }
+
+    def "should rebalance partitions as members join and leave"() {
+        given:
+            ConsumerGroup group = store.group(origin, "pokes")
+            ConsumerGroup.Member first = group.join("first")
+            first.poll(1, {})
+        expect:
+            first.partitions() == [0, 1, 2, 3] as Set
+        when: "second member joins, but its partitions are still leased"
+            ConsumerGroup.Member second = group.join("second")
+            second.poll(1, {})
+        then:
+            second.partitions().isEmpty()
+        when:
+            first.poll(1, {})
+            second.poll(1, {})
+        then:
+            first.partitions() == [0, 2] as Set
+            second.partitions() == [1, 3] as Set
+        when:
+            second.close()
+            first.poll(1, {})
+        then:
+            first.partitions() == [0, 1, 2, 3] as Set
+    }
+
+    def "given member that stopped polling should take over its partitions once lease expires"() {
+        given:
+            ConsumerGroup group = new FileConsumerGroup(store, origin, "pokes", Duration.ofSeconds(10))
+            ConsumerGroup.Member first = group.join("first")
+            first.poll(1, {})
+            ConsumerGroup.Member second = group.join("second")
+        when:
+            store.clock = Clock.fixed(now.plusSeconds(5), ZoneId.of("UTC"))
+            second.poll(1, {})
+        then:
+            second.partitions().isEmpty()
+        when:
+            store.clock = Clock.fixed(now.plusSeconds(11), ZoneId.of("UTC"))
+            second.poll(1, {})
+        then:
+            second.partitions() == [0, 1, 2, 3] as Set
+        when: "the first one comes back, it gives up the partitions it has lost"
+            first.poll(1, {})
+        then:
+            first.partitions().isEmpty()
+    }
+
+    def "given member not seen as alive should skip the poll instead of failing"() {
+        given: "lease too short for the heartbeat to count"
+            store.persist("hog").apply(origin, "poked", "0")
+            ConsumerGroup.Member expired = new FileConsumerGroup(store, origin, "pokes", Duration.ZERO).join("first")
+            List<Event> consumed = []
+        when:
+            int count = expired.poll(100, { consumed << it })
+        then:
+            count == 0
+            consumed.isEmpty()
+            expired.partitions().isEmpty()
+    }
+
+    def "should consume every event once while written concurrently"() {
+        given:
+            def executor = Executors.newFixedThreadPool(4)
+            ConsumerGroup group = store.group(origin, "pokes")
+            Map<String, List<Long>> consumed = new ConcurrentHashMap<>()
+            List<ConsumerGroup.Member> members = (0..2).collect { group.join("member-$it") }
+            AtomicBoolean writing = new AtomicBoolean(true)
+            Consumer<Event> record = { Event it -> consumed.computeIfAbsent(it.aggregateId, { new CopyOnWriteArrayList() }) << it.seq }
+        when:
+            def consumers = members.collect { member ->
+                executor.submit {
+                    while (writing.get()) {
+                        member.poll(100, record)
+                    }
+                }
+            }
+            (0..199).each { store.persist("hog-${it % 7}").apply(origin, "poked", "$it") }
+            writing.set(false)
+            consumers*.get(20, TimeUnit.SECONDS)
+            members.each { it.poll(1000, record) }
+        then:
+            consumed.keySet() == (0..6).collect { "hog-$it".toString() } as Set
+            consumed.every { id, seqs -> seqs == (0L..<seqs.size()) }
+            consumed.values()*.size().sum() == 200
+        cleanup:
+            executor.shutdownNow()
+    }
+}
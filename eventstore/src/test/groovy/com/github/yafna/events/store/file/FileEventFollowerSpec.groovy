@@ -0,0 +1,125 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.NewEvent
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.nio.file.StandardOpenOption
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+import java.util.concurrent.CopyOnWriteArrayList
+
+class FileEventFollowerSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    File root = File.createTempDir()
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+    FileEventStore writer = new GsonFileEventStore(clock, root)
+
+    def setup() {
+        writer.feedPartitions = 4
+        writer.persist("sonic").apply(origin, "born", "{}")
+    }
+
+    def "should see aggregates created after it has been opened once followed"() {
+        given:
+            FileEventStore subj = GsonFileEventStore.follower(clock, root)
+            writer.persist("miles").apply(origin, "born", "{}")
+            writer.appendBatch(origin, "amy", [new NewEvent("born", "{}"), new NewEvent("run", "{}")])
+            writer.persist().apply(origin, "tick", "{}")
+        expect:
+            subj.getEvents(origin, "sonic", null).count() == 1
+            subj.getEvents(origin, "miles", null).count() == 0
+        when:
+            int followed = subj.follower.poll()
+        then:
+            followed == 4
+            subj.getEvents(origin, "miles", null).collect { it.type } == ["born"]
+            subj.getEvents(origin, "amy", null).collect { it.type } == ["born", "run"]
+            subj.follower.poll() == 0
+        cleanup:
+            subj.close()
+    }
+
+    def "should pass followed events to subscribers"() {
+        given:
+            FileEventStore subj = GsonFileEventStore.follower(clock, root)
+            List<Event> received = []
+        expect:
+            subj.subscribe(origin, "born", clock.instant(), { received << it }) == null
+        when:
+            writer.persist("miles").apply(origin, "born", "{}")
+            writer.persist("miles").apply(origin, "run", "{}")
+            writer.persist("tails").apply(origin, "born", "{}")
+            subj.follower.poll()
+        then:
+            received.collect { it.aggregateId } == ["miles", "tails"]
+        cleanup:
+            subj.close()
+    }
+
+    def "should follow the writer on a thread of its own"() {
+        given:
+            FileEventStore subj = GsonFileEventStore.follower(clock, root)
+            List<Event> received = new CopyOnWriteArrayList<>()
+            subj.subscribe(origin, "born", clock.instant(), { received << it })
+            subj.follower.start(Duration.ofSeconds(5))
+        when:
+            writer.persist("miles").apply(origin, "born", "{}")
+            writer.persist("sonic").apply("fox", "born", "{}")
+        then:
+            for (int i = 0; i < 100 && received.isEmpty(); i++) {
+                Thread.sleep(50)
+            }
+            received*.aggregateId == ["miles"]
+            subj.getEvents(origin, "miles", null).count() == 1
+        cleanup:
+            subj.close()
+    }
+
+    def "given line being appended when opened should start following after the last complete one"() {
+        given:
+            writer.persist("miles").apply(origin, "born", "{}")
+            def log = Feed.log(writer.feedDir(origin), Feed.partition("tails", 4))
+            Files.write(log, "0 tai".getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+            FileEventStore subj = GsonFileEventStore.follower(clock, root)
+        when:
+            Files.write(log, "ls\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND)
+        then:
+            subj.follower.poll() == 1
+            subj.getEvents(origin, "miles", null).count() == 1
+        cleanup:
+            subj.close()
+    }
+
+    def "should reject writes"() {
+        given:
+            FileEventStore subj = GsonFileEventStore.follower(clock, root)
+        when:
+            subj.persist("miles").apply(origin, "born", "{}")
+        then:
+            thrown(UnsupportedOperationException)
+        when:
+            subj.appendBatch(origin, "miles", [new NewEvent("born", "{}")])
+        then:
+            thrown(UnsupportedOperationException)
+        cleanup:
+            subj.close()
+    }
+
+    def "should notify writer's own subscribers of its writes"() {
+        given:
+            List<Event> received = []
+            writer.subscribe(origin, "born", clock.instant(), { received << it })
+        when:
+            writer.persist("miles").apply(origin, "born", "{}")
+            writer.appendBatch(origin, "amy", [new NewEvent("born", "{}"), new NewEvent("born", "{}")])
+            writer.persist("miles").apply(origin, "run", "{}")
+        then:
+            received.collect { [it.aggregateId, it.seq] } == [["miles", 0L], ["amy", 0L], ["amy", 1L]]
+    }
+}
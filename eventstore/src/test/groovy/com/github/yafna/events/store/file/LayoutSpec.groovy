@@ -0,0 +1,85 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+class LayoutSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    File root = File.createTempDir()
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+
+    def "given sharded layout should place aggregate under hash directories"() {
+        given:
+            Layout layout = Layout.sharded(2)
+            FileEventStore subj = new GsonFileEventStore(clock, root, layout)
+        when:
+            Event event = subj.persist("43a0f882").apply(origin, "created", "12345")
+            Path dir = layout.resolve(root.toPath().resolve(origin), "43a0f882")
+        then:
+            root.toPath().resolve(origin).relativize(dir).nameCount == 3
+            Files.list(dir).filter({ !Files.isHidden(it) }).count() == 1
+            subj.getEvents(origin, "43a0f882", null).collect { it.id } == [event.id]
+            subj.aggregateDirectories().collect { it.fileName.toString() } == ["43a0f882"]
+    }
+
+    def "given flat store should migrate it to sharded layout and back"() {
+        given:
+            FileEventStore flat = new GsonFileEventStore(clock, root)
+            List<String> ids = ["111", "222", "333"]
+            Map<String, String> events = ids.collectEntries { [it, flat.persist(it).apply(origin, "created", it).id] }
+            Event global = flat.persist().apply(origin, "global", "12345")
+        when:
+            int moved = new LayoutMigration(root.toPath(), Layout.FLAT, Layout.sharded(2)).run()
+            FileEventStore sharded = new GsonFileEventStore(clock, root, Layout.sharded(2))
+        then:
+            moved == 3
+            ids.every { sharded.getEvents(origin, it, null).collect { it.id } == [events[it]] }
+            sharded.getEvents(origin, null, null).collect { it.id } == [global.id]
+        when: "migration is repeated"
+            int again = new LayoutMigration(root.toPath(), Layout.FLAT, Layout.sharded(2)).run()
+        then:
+            again == 0
+        when:
+            int back = new LayoutMigration(root.toPath(), Layout.sharded(2), Layout.FLAT).run()
+        then:
+            back == 3
+            Files.list(root.toPath().resolve(origin)).filter { Files.isDirectory(it) }.collect { it.fileName.toString() }.sort() == ids
+    }
+
+    def "given several roots should spread events across them and rebalance after a root is added"() {
+        given:
+            List<File> roots = [File.createTempDir(), File.createTempDir()]
+            FileEventStore striped = new GsonFileEventStore(clock, roots, Layout.FLAT)
+            List<String> ids = (1..20).collect { "aggregate-$it".toString() }
+            Map<String, String> events = ids.collectEntries { [it, striped.persist(it).apply(origin, "created", it).id] }
+            List<String> globals = (0..5).collect {
+                striped.clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z").plusSeconds(3600 * it), ZoneId.of("UTC"))
+                striped.persist().apply(origin, "global", "12345").id
+            }
+        expect:
+            roots.every { aggregates(it).size() > 0 }
+            ids.every { striped.getEvents(origin, it, null).collect { it.id } == [events[it]] }
+            striped.getEvents(origin, null, null).collect { it.id } == globals
+        when:
+            roots << File.createTempDir()
+            int moved = new LayoutMigration(roots*.toPath(), Layout.FLAT, Layout.FLAT).run()
+            FileEventStore extended = new GsonFileEventStore(clock, roots, Layout.FLAT)
+        then: "only aggregates now belonging to the new root are moved"
+            moved > 0 && moved < ids.size()
+            aggregates(roots[2]).size() == moved
+            ids.every { extended.getEvents(origin, it, null).collect { it.id } == [events[it]] }
+            extended.getEvents(origin, null, null).collect { it.id } == globals
+    }
+
+    private static List<Path> aggregates(File root) {
+        Path originDir = root.toPath().resolve(origin)
+        return Files.exists(originDir) ? Files.list(originDir).filter { Files.isDirectory(it) }.collect() : []
+    }
+}
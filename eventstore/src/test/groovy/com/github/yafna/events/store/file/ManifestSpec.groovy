@@ -0,0 +1,73 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.NewEvent
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+class ManifestSpec extends Specification {
+    private final static String origin = "hedgehog"
+    private final static String aggregateId = "43a0f882"
+
+    File root = File.createTempDir()
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+    FileEventStore store = new GsonFileEventStore(clock, root)
+    Path dir = root.toPath().resolve(origin).resolve(aggregateId)
+
+    def "should map every seq to the file holding it"() {
+        given:
+            List<Event> events = (0..2).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            events += store.appendBatch(origin, aggregateId, [new NewEvent("poked", "3"), new NewEvent("poked", "4")])
+            String archive = Files.list(dir).find { EventArchive.of(it).present }.fileName.toString()
+        expect:
+            Manifest.read(dir, 0).get() == [
+                    "00000000=${events[0].id}=poked.evt", "00000001=${events[1].id}=poked.evt",
+                    "00000002=${events[2].id}=poked.evt", archive, archive
+            ]*.toString()
+            Manifest.read(dir, 4).get() == [archive]
+            Manifest.read(dir, 5).get() == []
+            store.getEvents(origin, aggregateId, 1L).collect { it.id } == events.subList(2, 5)*.id
+            store.getEvents(origin, aggregateId, 3L).collect { it.id } == [events[4].id]
+    }
+
+    def "should read only the files listed in manifest"() {
+        given:
+            List<Event> events = (0..2).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            Files.write(dir.resolve("00000001=stray=poked.evt"), "not an event".bytes)
+        expect:
+            store.getEvents(origin, aggregateId, 0L).collect { it.id } == events.subList(1, 3)*.id
+    }
+
+    def "given missing manifest should read by listing and rebuild it on next write"() {
+        given:
+            List<Event> events = (0..2).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            Files.delete(dir.resolve(Manifest.INDEX))
+        expect:
+            !Manifest.read(dir, 0).present
+            store.getEvents(origin, aggregateId, 0L).collect { it.id } == events.subList(1, 3)*.id
+        when:
+            Event next = store.persist(aggregateId).apply(origin, "poked", "3")
+        then:
+            next.seq == 3L
+            Manifest.read(dir, 0).get().size() == 4
+    }
+
+    def "given compacted aggregate should point manifest to archives"() {
+        given:
+            List<Event> events = (0..4).collect { store.persist(aggregateId).apply(origin, "poked", "$it") }
+        when:
+            new Compactor(store, 2, Double.MAX_VALUE).compact()
+        then:
+            Manifest.read(dir, 0).get() == [
+                    "00000000-00000001.pack", "00000000-00000001.pack",
+                    "00000002-00000003.pack", "00000002-00000003.pack",
+                    "00000004=${events[4].id}=poked.evt".toString()
+            ]
+            store.getEvents(origin, aggregateId, 0L).collect { it.id } == events.subList(1, 5)*.id
+    }
+}
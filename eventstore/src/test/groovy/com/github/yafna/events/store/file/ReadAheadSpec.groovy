@@ -0,0 +1,89 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
+import java.util.stream.Collectors
+
+class ReadAheadSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+    ReadAhead subj = new ReadAhead(3, Executors.newFixedThreadPool(4))
+
+    def "should deliver results in order even if later reads complete first"() {
+        given:
+            List<Supplier<Integer>> reads = (0..9).collect { int i ->
+                { -> Thread.sleep(50 - 5 * i); i } as Supplier<Integer>
+            }
+        expect:
+            subj.apply(reads.stream()).collect(Collectors.toList()) == (0..9).toList()
+    }
+
+    def "should not run more reads ahead than its depth"() {
+        given:
+            AtomicInteger started = new AtomicInteger()
+            List<Supplier<Integer>> reads = (0..9).collect { int i ->
+                { -> started.incrementAndGet(); i } as Supplier<Integer>
+            }
+        when:
+            Iterator<Integer> results = subj.apply(reads.stream()).iterator()
+            results.next()
+            Thread.sleep(100)
+        then: "the consumed read and the ones waiting behind it"
+            started.get() == 4
+    }
+
+    def "should not start another read while waiting for the head"() {
+        given:
+            AtomicInteger started = new AtomicInteger()
+            CountDownLatch release = new CountDownLatch(1)
+            List<Supplier<Integer>> reads = (0..9).collect { int i ->
+                { -> started.incrementAndGet(); if (i == 0) { release.await() }; i } as Supplier<Integer>
+            }
+            Iterator<Integer> results = subj.apply(reads.stream()).iterator()
+        when:
+            CompletableFuture<Integer> head = CompletableFuture.supplyAsync({ results.next() } as Supplier<Integer>)
+            Thread.sleep(100)
+        then:
+            started.get() == 3
+        when:
+            release.countDown()
+        then:
+            head.get(10, TimeUnit.SECONDS) == 0
+    }
+
+    def "should pass failure of a read to the consumer"() {
+        given:
+            Supplier<Integer> ok = { -> 1 }
+            Supplier<Integer> broken = { -> throw new IllegalStateException("broken") }
+        when:
+            subj.apply([ok, broken].stream()).collect(Collectors.toList())
+        then:
+            IllegalStateException e = thrown()
+            e.message == "broken"
+    }
+
+    def "given read-ahead store should replay the same events as without it"() {
+        given:
+            FileEventStore store = new GsonFileEventStore(clock, File.createTempDir())
+            List<String> ids = (0..9).collect { store.persist("43a0f882").apply(origin, "updated", "{\"n\":$it}").id }
+            List<String> globals = (0..2).collect { store.persist().apply(origin, "tick", "{}").id }
+            new Compactor(store, 4, Double.MAX_VALUE).compact()
+        when:
+            store.readAhead = ReadAhead.create(4, 2)
+        then:
+            store.getEvents(origin, "43a0f882", null).collect { Event it -> it.id } == ids
+            store.getEvents(origin, "43a0f882", 5L).collect { Event it -> it.id } == ids.subList(6, 10)
+            store.getEvents(origin, null, null).collect { Event it -> it.id }.sort() == globals.sort()
+    }
+}
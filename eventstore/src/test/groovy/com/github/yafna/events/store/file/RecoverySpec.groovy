@@ -0,0 +1,104 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Duration
+import java.time.Instant
+import java.time.ZoneId
+
+class RecoverySpec extends Specification {
+    private final static String origin = "hedgehog"
+    private final static String aggregateId = "43a0f882"
+
+    File root = File.createTempDir()
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+
+    def "given torn write after a crash should quarantine it on startup"() {
+        given:
+            FileEventStore crashed = new GsonFileEventStore(clock, root)
+            Event first = crashed.persist(aggregateId).apply(origin, "created", "12345")
+            Event second = crashed.persist(aggregateId).apply(origin, "updated", "67890")
+            Path torn = file(second)
+            Files.write(torn, Arrays.copyOf(Files.readAllBytes(torn), 20))
+        when:
+            FileEventStore subj = new GsonFileEventStore(clock, root)
+        then:
+            subj.getEvents(origin, aggregateId, null).collect { it.id } == [first.id]
+            Files.exists(root.toPath().resolve(".quarantine").resolve(root.toPath().relativize(torn)))
+        and: "next event takes the place of the torn one"
+            subj.persist(aggregateId).apply(origin, "updated", "67890").seq == 1L
+    }
+
+    def "given clean shutdown should not validate files written before it"() {
+        given:
+            FileEventStore previous = new GsonFileEventStore(clock, root)
+            Event event = previous.persist(aggregateId).apply(origin, "created", "12345")
+            previous.close()
+            Path damaged = file(event)
+            Files.write(damaged, Arrays.copyOf(Files.readAllBytes(damaged), 20))
+        when:
+            FileEventStore subj = new GsonFileEventStore(clock, root)
+        then:
+            subj.recover() == []
+            Files.exists(damaged)
+    }
+
+    def "should checkpoint periodically so that the journal does not grow until shutdown"() {
+        given:
+            FileEventStore subj = new GsonFileEventStore(clock, root)
+            subj.checkpointInterval = Duration.ofMillis(100)
+            Path journal = root.toPath().resolve(".journal")
+        when:
+            subj.persist(aggregateId).apply(origin, "created", "12345")
+        then:
+            Files.size(journal) > 0
+        when:
+            long deadline = System.currentTimeMillis() + 10000
+            while (Files.size(journal) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20)
+            }
+        then:
+            Files.size(journal) == 0
+        cleanup:
+            subj.close()
+    }
+
+    def "given corrupted record should fail checksum validation on read"() {
+        given:
+            FileEventStore subj = new GsonFileEventStore(clock, root)
+            Event event = subj.persist(aggregateId).apply(origin, "created", "12345")
+            Path file = file(event)
+            Files.write(file, new String(Files.readAllBytes(file), "UTF-8").replace("12345", "12346").getBytes("UTF-8"))
+        when:
+            subj.getEvents(origin, aggregateId, null).collect()
+        then:
+            IllegalStateException e = thrown()
+            e.message.startsWith("Checksum mismatch")
+    }
+
+    def "given record without checksum should read it only in migration mode"() {
+        given:
+            FileEventStore subj = new GsonFileEventStore(clock, root)
+            Event event = subj.persist(aggregateId).apply(origin, "created", "12345")
+            Path file = file(event)
+            Files.write(file, new String(Files.readAllBytes(file), "UTF-8").replaceAll(/\n#crc32c=\w{8}$/, "").getBytes("UTF-8"))
+        when:
+            subj.getEvents(origin, aggregateId, null).collect()
+        then:
+            IllegalStateException e = thrown()
+            e.message.startsWith("Checksum missing")
+        when:
+            subj.acceptUnsealed = true
+        then:
+            subj.getEvents(origin, aggregateId, null).collect { it.id } == [event.id]
+    }
+
+    private Path file(Event event) {
+        Path dir = root.toPath().resolve(origin).resolve(aggregateId)
+        return Files.list(dir).find { it.fileName.toString().contains(event.id) } as Path
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.NewEvent
+import com.github.yafna.events.store.StoredEvent
+import spock.lang.Specification
+
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+class ReplaySpec extends Specification {
+    private final static String origin = "hedgehog"
+    private final static String aggregateId = "43a0f882"
+    private final static List<String> FIELDS = [
+            "id", "aggregateId", "seq", "corrId", "causeId", "origin", "type", "stored", "payload"
+    ]
+
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11.123Z"), ZoneId.of("UTC"))
+    FileEventStore store = new GsonFileEventStore(clock, File.createTempDir())
+
+    def "should replay the same events as read by getEvents"() {
+        given:
+            store.persist(aggregateId).apply(origin, "created", '{"name":"Sonic"}')
+            store.persist("cause", "corr", aggregateId).apply(origin, "renamed", '{"name":"Ёжик \\"<&=>\'\\n\\u263a"}')
+            store.appendBatch(origin, aggregateId, [new NewEvent("poked", "1"), new NewEvent("poked", "[2, 3]")])
+        expect:
+            replayed(fromSeq) == read(fromSeq)
+            replayed(fromSeq).size() == 4 - (fromSeq == null ? 0 : fromSeq + 1)
+        where:
+            fromSeq << [null, 0L, 2L, 3L]
+    }
+
+    def "given compacted aggregate and read-ahead should replay the same events"() {
+        given:
+            (0..9).each { store.persist(aggregateId).apply(origin, "poked", "{\"n\":$it}") }
+            new Compactor(store, 4, Double.MAX_VALUE).compact()
+            store.readAhead = ReadAhead.create(2, 2)
+        expect:
+            replayed(null) == read(null)
+            replayed(5L) == read(5L)
+    }
+
+    def "should pass the same instance for every event"() {
+        given:
+            (0..2).each { store.persist(aggregateId).apply(origin, "poked", "$it") }
+            Set<Event> seen = Collections.newSetFromMap(new IdentityHashMap<>())
+            List<String> types = []
+            List<Long> seqs = []
+        when:
+            store.replay(origin, aggregateId, null, { Event it -> seen << it; types << it.type; seqs << it.seq() })
+        then:
+            seen.size() == 1
+            seqs == [0L, 1L, 2L]
+            types == ["poked"] * 3
+            types.every { it.is(types[0]) }
+    }
+
+    def "given unknown aggregate should replay nothing"() {
+        expect:
+            replayed(null, "missing") == []
+    }
+
+    private List<Map<String, Object>> replayed(Long fromSeq, String id = aggregateId) {
+        List<Map<String, Object>> result = []
+        store.replay(origin, id, fromSeq, { Event it -> result << fields(StoredEvent.of(it)) })
+        return result
+    }
+
+    private List<Map<String, Object>> read(Long fromSeq) {
+        return store.getEvents(origin, aggregateId, fromSeq).collect { fields(it) }
+    }
+
+    private static Map<String, Object> fields(Event event) {
+        return FIELDS.collectEntries { [it, event."$it"] }
+    }
+}
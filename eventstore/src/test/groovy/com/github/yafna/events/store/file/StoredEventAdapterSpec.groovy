@@ -0,0 +1,67 @@
+package com.github.yafna.events.store.file
+
+import com.fatboyindustrial.gsonjavatime.Converters
+import com.github.yafna.events.store.StoredEvent
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import spock.lang.Specification
+
+import java.nio.charset.StandardCharsets
+import java.time.Clock
+import java.time.Instant
+
+class StoredEventAdapterSpec extends Specification {
+    Gson reflective = Converters.registerAll(new GsonBuilder()).create()
+
+    def "should write the same bytes as reflective Gson and read them back"() {
+        given:
+            StoredEvent event = new StoredEvent(
+                    id: "0001", aggregateId: aggregateId, seq: seq, corrId: corrId, origin: "hedgehog",
+                    type: "renamed", stored: Instant.parse(stored), payload: payload
+            )
+            byte[] expected = reflective.toJson(event).getBytes(StandardCharsets.UTF_8)
+        when:
+            byte[] bytes = GsonFileEventStore.toBytes(event)
+            StoredEvent parsed = GsonFileEventStore.parse(bytes)
+        then:
+            bytes == expected
+            reflective.toJson(parsed) == reflective.toJson(event)
+        where:
+            aggregateId | seq  | corrId | stored                     | payload
+            null        | null | null   | "2002-05-19T22:33:11Z"     | '{"name":"Sonic"}'
+            "43a0f882"  | 0L   | "corr" | "2002-05-19T22:33:11.123Z" | '{"name":"Ёжик \\"<&=>\'\\n"}'
+            "43a0f882"  | 123L | null   | "2002-05-19T22:33:11.000000001Z" | '"\ud83e\udd94 and \u263a"'
+    }
+
+    def "given record written by reflective Gson should read it"() {
+        given:
+            StoredEvent event = new StoredEvent(id: "0001", seq: 5L, type: "poked", stored: Instant.EPOCH, payload: "1")
+        expect:
+            reflective.toJson(GsonFileEventStore.parse(reflective.toJson(event).getBytes(StandardCharsets.UTF_8))) ==
+                    reflective.toJson(event)
+    }
+
+    def "should decode UTF-8 regardless of read size"() {
+        given:
+            String text = "a\u00e9\u263a\ud83e\udd94z" * 3
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8)
+        expect:
+            [1, 2, 3, 1024].each { int size ->
+                Utf8Reader reader = new Utf8Reader(bytes, 0, bytes.length)
+                StringBuilder result = new StringBuilder()
+                char[] buffer = new char[size]
+                for (int n; (n = reader.read(buffer, 0, size)) >= 0; ) {
+                    result.append(buffer, 0, n)
+                }
+                assert result.toString() == text
+            }
+    }
+
+    def "should store events that read back the same"() {
+        given:
+            FileEventStore store = new GsonFileEventStore(Clock.systemUTC(), File.createTempDir())
+            def event = store.persist("cause", "corr", "43a0f882").apply("hedgehog", "renamed", '{"name":"Ёжик"}')
+        expect:
+            reflective.toJson(store.getEvents("hedgehog", "43a0f882", null).findFirst().get()) == reflective.toJson(event)
+    }
+}
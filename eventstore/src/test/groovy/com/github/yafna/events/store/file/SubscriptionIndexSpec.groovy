@@ -0,0 +1,88 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.StoredEvent
+import spock.lang.Specification
+
+import java.time.Instant
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.function.BiConsumer
+
+class SubscriptionIndexSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    List<Event> stored = (0..5).collect { event(it) }
+    List<Instant> loads = []
+
+    def "should index only events stored after the moment asked for and read earlier ones on demand"() {
+        given:
+            SubscriptionIndex subj = new SubscriptionIndex()
+        expect:
+            subscribe(subj, minute(3))*.id == [stored[4].id]
+            loads == [minute(3)]
+            subj.size(origin) == 2
+        and: "later moment is served from the index"
+            subscribe(subj, minute(4))*.id == [stored[5].id]
+            loads == [minute(3)]
+        and: "earlier moment reads the events missing"
+            subscribe(subj, minute(0))*.id == [stored[1].id]
+            loads == [minute(3), minute(0)]
+            subj.size(origin) == 5
+    }
+
+    def "should not hold up writers while reading the origin"() {
+        given:
+            SubscriptionIndex subj = new SubscriptionIndex()
+            Event written = event(6)
+            BiConsumer<Instant, BiConsumer<Event, String>> load = { Instant since, BiConsumer<Event, String> index ->
+                subj.add(event(7), "elsewhere")
+                CompletableFuture.runAsync({ subj.add(written, written.id) }).get(10, TimeUnit.SECONDS)
+                stored.each { index.accept(it, it.id) }
+                index.accept(written, written.id)
+            }
+            List<Event> received = []
+        when:
+            def result = subj.subscribe(origin, "run", minute(0), { received << it }, load, { Optional.empty() })
+        then: "event indexed by both the writer and the read is kept once"
+            result == null
+            subj.size(origin) == 7
+    }
+
+    def "should keep a bounded number of events, dropping the earliest ones"() {
+        given:
+            SubscriptionIndex subj = new SubscriptionIndex(3)
+            subscribe(subj, minute(4))
+        when:
+            (6..9).each { Event next = event(it); stored << next; subj.add(next, next.id) }
+        then:
+            subj.size(origin) == 3
+        and: "dropped events are read again"
+            subscribe(subj, minute(6))*.id == [stored[7].id]
+            loads == [minute(4)]
+            subscribe(subj, minute(2))*.id == [stored[3].id]
+            loads == [minute(4), minute(2)]
+            subj.size(origin) == 3
+    }
+
+    private List<Event> subscribe(SubscriptionIndex subj, Instant since) {
+        return subj.subscribe(origin, "wake", since, { throw new IllegalStateException("Not expected") }, {
+            Instant after, BiConsumer<Event, String> index ->
+                loads << after
+                stored.each { index.accept(it, it.id) }
+        }, { String location -> Optional.ofNullable(stored.find { it.id == location }) })
+    }
+
+    private static Event event(int at) {
+        StoredEvent event = new StoredEvent()
+        event.id = "e-$at"
+        event.origin = origin
+        event.type = "wake"
+        event.stored = minute(at)
+        return event
+    }
+
+    private static Instant minute(int minute) {
+        return Instant.parse("2002-06-01T08:00:00Z").plusSeconds(60 * minute)
+    }
+}
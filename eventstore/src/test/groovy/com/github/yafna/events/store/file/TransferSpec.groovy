@@ -0,0 +1,83 @@
+package com.github.yafna.events.store.file
+
+import com.github.yafna.events.Event
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+
+class TransferSpec extends Specification {
+    private final static String origin = "hedgehog"
+
+    Clock clock = Clock.fixed(Instant.parse("2002-05-19T22:33:11Z"), ZoneId.of("UTC"))
+    Clock later = Clock.fixed(Instant.parse("2017-01-01T00:00:00Z"), ZoneId.of("UTC"))
+    FileEventStore source = new GsonFileEventStore(clock, File.createTempDir())
+    Path export = Files.createTempFile("events", ".export")
+
+    def "should export loose, archived and global events and import them preserving ids and seq"() {
+        given:
+            List<Event> first = (0..4).collect {
+                source.persist("43a0f882").apply(origin, "updated", "{\"n\":$it}")
+            }
+            Event caused = source.persist(first[0].id, first[0].id, "7b1c0d3e").apply(origin, "created", "{}")
+            Event global = source.persist(null).apply(origin, "tick", "{}")
+            new Compactor(source, 2, Double.MAX_VALUE).compact()
+            FileEventStore target = new GsonFileEventStore(later, File.createTempDir(), Layout.sharded(2))
+        when:
+            long exported = new EventExporter(source).export(export, [], [])
+            long imported = new EventImporter(GsonFileEventStore.&parse, 2).load(export, target)
+        then:
+            exported == 7
+            imported == 7
+            describe(target.getEvents(origin, "43a0f882", null)) == describe(first.stream())
+            describe(target.getEvents(origin, "7b1c0d3e", null)) == describe([caused].stream())
+            describe(target.getEvents(origin, null, null)) == describe([global].stream())
+    }
+
+    def "should export global events moved to the cold archive"() {
+        given:
+            List<Event> globals = (0..3).collect { source.persist(null).apply(origin, "tick", "{\"n\":$it}") }
+            new EventRetention(source).policy(origin, EventRetentionPolicy.maxCount(2).archived()).enforce()
+            FileEventStore target = new GsonFileEventStore(later, File.createTempDir())
+        when:
+            long exported = new EventExporter(source).export(export, [], [])
+            new EventImporter(GsonFileEventStore.&parse, 10).load(export, target)
+        then:
+            source.globalEvents(origin).size() == 2
+            exported == 4
+            describe(target.getEvents(origin, null, null)).sort() == describe(globals.stream()).sort()
+    }
+
+    def "should export only selected aggregates"() {
+        given:
+            source.persist("43a0f882").apply(origin, "created", "{}")
+            source.persist("7b1c0d3e").apply(origin, "created", "{}")
+            source.persist(null).apply(origin, "tick", "{}")
+            FileEventStore target = new GsonFileEventStore(later, File.createTempDir())
+        when:
+            new EventExporter(source).export(export, [origin], ["7b1c0d3e"])
+            new EventImporter(GsonFileEventStore.&parse, 10).load(export, target)
+        then:
+            target.getEvents(origin, "7b1c0d3e", null).count() == 1
+            target.getEvents(origin, "43a0f882", null).count() == 0
+            target.getEvents(origin, null, null).count() == 0
+    }
+
+    def "should refuse to import events into a store which already holds them"() {
+        given:
+            source.persist("43a0f882").apply(origin, "created", "{}")
+            new EventExporter(source).export(export, [], [])
+        when:
+            new EventImporter(GsonFileEventStore.&parse, 10).load(export, source)
+        then:
+            IllegalStateException e = thrown()
+            e.message.contains("expected 0")
+    }
+
+    private static List<List<Object>> describe(java.util.stream.Stream<Event> events) {
+        return events.collect { [it.id, it.seq, it.type, it.payload, it.stored, it.causeId, it.corrId] }
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.yafna.events.store.jdbc
+
+import com.github.yafna.events.Event
+import com.github.yafna.events.store.EventStore
+import com.github.yafna.events.store.EventStoreSpec
+import com.github.yafna.events.store.NewEvent
+import org.h2.jdbcx.JdbcDataSource
+
+import java.sql.SQLException
+import java.time.Clock
+
+class JdbcEventStoreSpec extends EventStoreSpec {
+    JdbcDataSource dataSource = new JdbcDataSource(url: "jdbc:h2:${File.createTempDir()}/events")
+
+    @Override
+    EventStore createStore(Clock clock) {
+        return new JdbcEventStore(clock, dataSource)
+    }
+
+    def cleanup() {
+        subj.close()
+    }
+
+    def "given two stores over the same database should continue each other's sequence"() {
+        given:
+            JdbcEventStore other = new JdbcEventStore(clock, dataSource)
+        when:
+            Event first = subj.persist("43a0f882").apply(origin, "created", "12345")
+            Event second = other.persist("43a0f882").apply(origin, "updated", "67890")
+        then:
+            [first.seq, second.seq] == [0L, 1L]
+            subj.getEvents(origin, "43a0f882", null).collect { it.id } == [first.id, second.id]
+        cleanup:
+            other.close()
+    }
+
+    def "given reopened database should read events stored before"() {
+        given:
+            Event event = subj.persist("43a0f882").apply(origin, "created", "12345")
+            subj.close()
+        when:
+            subj = new JdbcEventStore(clock, dataSource)
+        then:
+            subj.getEvents(origin, "43a0f882", null).collect { [it.id, it.payload, it.stored] } == [
+                    [event.id, "12345", event.stored]
+            ]
+    }
+
+    def "given event id taken already should report the clash instead of a concurrent append"() {
+        given:
+            Event first = subj.persist("43a0f882").apply(origin, "created", "12345")
+        when:
+            subj.appendBatch(origin, "43a0f883", null, [new NewEvent(first.id, "created", "67890", null, null, null)])
+        then:
+            IllegalStateException e = thrown()
+            e.message == "Unable to append events to [${origin}/43a0f883]"
+            e.cause instanceof SQLException
+            subj.getEvents(origin, "43a0f883", null).count() == 0
+    }
+}
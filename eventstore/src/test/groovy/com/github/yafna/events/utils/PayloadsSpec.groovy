@@ -0,0 +1,79 @@
+package com.github.yafna.events.utils
+
+import com.github.yafna.events.rabbits.RabbitAdded
+import com.github.yafna.events.rabbits.RabbitWeighed
+import com.github.yafna.events.woodpecker.Woodpecker
+import com.google.gson.Gson
+import com.google.gson.JsonParser
+import com.google.gson.JsonSyntaxException
+import spock.lang.Specification
+import spock.lang.Unroll
+
+class PayloadsSpec extends Specification {
+    Gson reflective = new Gson()
+    Gson subj = Payloads.gson()
+
+    @Unroll
+    def "should use generated adapter for #type.simpleName"() {
+        expect:
+            subj.getAdapter(type).class.name == type.name.replace('$', '_') + "_PayloadAdapter\$Adapter"
+        where:
+            type << [RabbitAdded, RabbitWeighed, Woodpecker.Knock1]
+    }
+
+    @Unroll
+    def "should read and write #json the way Gson reflection does"() {
+        when:
+            def generated = subj.fromJson(json, RabbitWeighed)
+            def expected = reflective.fromJson(json, RabbitWeighed)
+        then:
+            reflective.toJson(generated) == reflective.toJson(expected)
+            parse(subj.toJson(generated)) == parse(reflective.toJson(expected))
+        where:
+            json << [
+                    '{}',
+                    '{"reason":"diet","at":12,"kg":2.5,"ears":2,"fluffy":false,"carrots":3,"tame":true,"tags":["a","b"],"size":"LARGE","fur":0.5}',
+                    '{"weight":1.5,"carrots":null,"tame":null,"reason":null,"note":"skipped","unknown":{"a":[1,2]}}',
+                    '{"reason":true,"tame":"true","ears":"4","at":"7"}'
+            ]
+    }
+
+    def "should write fields of superclass last"() {
+        expect:
+            subj.toJson(subj.fromJson('{"reason":"diet","ears":2}', RabbitWeighed)) ==
+                    '{"kg":0.0,"ears":2,"fluffy":true,"fur":0.0,"reason":"diet","at":0}'
+    }
+
+    def "should keep getters working on fields set through method handles"() {
+        when:
+            RabbitAdded added = subj.fromJson('{"name":"bugs","publicKey":"k"}', RabbitAdded)
+        then:
+            added.name == "bugs"
+            added.publicKey == "k"
+            subj.toJson(new RabbitAdded("roger", null)) == '{"name":"roger"}'
+    }
+
+    def "should tell reflective adapters from other ones"() {
+        expect:
+            Payloads.isReflective(reflective.getAdapter(RabbitAdded))
+            !Payloads.isReflective(subj.getAdapter(RabbitAdded))
+            !Payloads.isReflective(reflective.getAdapter(String))
+    }
+
+    def "should handle nulls"() {
+        expect:
+            subj.fromJson('null', RabbitAdded) == null
+            subj.toJson(null, RabbitAdded) == 'null'
+    }
+
+    def "given malformed value should throw syntax exception"() {
+        when:
+            subj.fromJson('{"ears":"many"}', RabbitWeighed)
+        then:
+            thrown(JsonSyntaxException)
+    }
+
+    private static parse(String json) {
+        new JsonParser().parse(json)
+    }
+}
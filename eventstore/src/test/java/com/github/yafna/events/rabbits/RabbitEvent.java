@@ -0,0 +1,12 @@
+package com.github.yafna.events.rabbits;
+
+import lombok.Getter;
+
+/**
+ * Base of payloads carrying fields declared in a superclass.
+ */
+@Getter
+public abstract class RabbitEvent {
+    protected String reason;
+    private long at;
+}
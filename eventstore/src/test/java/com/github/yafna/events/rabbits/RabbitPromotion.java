@@ -0,0 +1,19 @@
+package com.github.yafna.events.rabbits;
+
+import com.github.yafna.events.Event;
+import com.github.yafna.events.annotations.Handler;
+import com.github.yafna.events.handlers.event.Emitter;
+import com.github.yafna.events.handlers.event.EventHandler;
+
+/**
+ * Promotes every rabbit named Kirk to captain.
+ */
+@Handler("added")
+public class RabbitPromotion implements EventHandler<RabbitAdded> {
+    @Override
+    public void handle(Event meta, RabbitAdded payload, Emitter emitter) {
+        if ("Kirk".equals(payload.getName())) {
+            emitter.emit(meta.getAggregateId(), new RabbitNameUpdated("Captain " + payload.getName()));
+        }
+    }
+}
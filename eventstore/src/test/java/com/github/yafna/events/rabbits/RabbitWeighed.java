@@ -0,0 +1,31 @@
+package com.github.yafna.events.rabbits;
+
+import com.github.yafna.events.DomainEvent;
+import com.github.yafna.events.annotations.EvType;
+import com.google.gson.annotations.SerializedName;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@EvType("weighed")
+@Getter
+@NoArgsConstructor
+public class RabbitWeighed extends RabbitEvent implements DomainEvent<Rabbit> {
+    private static final int UNUSED = 1;
+
+    @SerializedName(value = "kg", alternate = {"weight"})
+    double weight;
+    private int ears;
+    private final Boolean fluffy = Boolean.TRUE;
+    private Integer carrots;
+    private Boolean tame;
+    private transient String note;
+    private List<String> tags;
+    private Size size;
+    private float fur;
+
+    public enum Size {
+        SMALL, LARGE
+    }
+}
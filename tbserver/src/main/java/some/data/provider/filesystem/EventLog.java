@@ -0,0 +1,307 @@
+package some.data.provider.filesystem;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of serialized events, split into segment files named by the sequence of their first record,
+ * so that sorting segments by name orders them. A record is its length, sequence and CRC32 followed by the bytes.
+ * <p>
+ * Segments roll over once they exceed {@code segmentSize}. Appends are forced to disk every {@code syncEvery}
+ * records or {@code syncMillis} milliseconds, whichever comes first, on rollover and on close. Records left
+ * unsynced once the writer goes quiet are forced by a background task checking every {@code syncMillis}.
+ * A record torn by a crash ends the last segment, and is truncated away when the log is opened, one that
+ * fails to be written is truncated away at once.
+ */
+@Slf4j
+class EventLog implements Closeable {
+    static final String SUFFIX = ".log";
+    private static final int HEADER = 4 + 8 + 4;
+
+    private final Path folder;
+    private final long segmentSize;
+    private final int syncEvery;
+    private final long syncMillis;
+    private FileChannel segment;
+    private Path current;
+    private long next;
+    private int unsynced;
+    private long lastSync = System.currentTimeMillis();
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "event-log-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    EventLog(Path folder, long segmentSize, int syncEvery, long syncMillis) {
+        this.folder = folder;
+        this.segmentSize = segmentSize;
+        this.syncEvery = syncEvery;
+        this.syncMillis = syncMillis;
+        List<Path> segments = segments(folder);
+        try {
+            if (segments.isEmpty()) {
+                next = 1;
+                current = path(next);
+                segment = create(current);
+            } else {
+                Path last = segments.get(segments.size() - 1);
+                segment = FileChannel.open(last, StandardOpenOption.WRITE);
+                current = last;
+                long end = recover(last);
+                segment.truncate(end);
+                segment.position(end);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open event log in " + folder, e);
+        }
+        syncer.scheduleWithFixedDelay(this::syncIdle, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Finds the end of the last complete record and the sequence following it.
+     */
+    private long recover(Path last) throws IOException {
+        next = sequence(last);
+        long size = Files.size(last);
+        long end = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(last)))) {
+            Record record;
+            while ((record = read(in, end, size - end)) != null) {
+                next = record.getSeq() + 1;
+                end = record.getEnd();
+            }
+        }
+        if (end < size) {
+            log.warn("Truncating torn record at " + end + " of " + last);
+        }
+        return end;
+    }
+
+    /**
+     * @return position of the appended record
+     */
+    synchronized Appended append(byte[] bytes) throws IOException {
+        if (segment.position() > 0 && segment.position() + HEADER + bytes.length > segmentSize) {
+            rollOver();
+        }
+        long seq = next;
+        long start = segment.position();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + bytes.length);
+        buffer.putInt(bytes.length).putLong(seq).putInt(crc(bytes)).put(bytes).flip();
+        try {
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+        } catch (IOException e) {
+            // A partial record would hide every record appended after it from readers
+            try {
+                segment.truncate(start);
+                segment.position(start);
+            } catch (IOException truncate) {
+                e.addSuppressed(truncate);
+            }
+            throw e;
+        }
+        next++;
+        long now = System.currentTimeMillis();
+        if (++unsynced >= syncEvery || now - lastSync >= syncMillis) {
+            sync(now);
+        }
+        return new Appended(current, seq, segment.position());
+    }
+
+    /**
+     * Switches to a new segment once the current one is forced, the log stays with the current one if either fails.
+     */
+    private void rollOver() throws IOException {
+        Path path = path(next);
+        FileChannel created = create(path);
+        try {
+            segment.force(false);
+        } catch (IOException e) {
+            try {
+                created.close();
+                Files.deleteIfExists(path);
+            } catch (IOException delete) {
+                e.addSuppressed(delete);
+            }
+            throw e;
+        }
+        segment.close();
+        segment = created;
+        current = path;
+    }
+
+    private Path path(long first) {
+        return folder.resolve(String.format("%020d", first) + SUFFIX);
+    }
+
+    /**
+     * Opens a new segment, reusing an empty one left behind by a failed rollover.
+     */
+    private static FileChannel create(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        if (channel.size() > 0) {
+            channel.close();
+            throw new IOException("Segment " + path + " already holds records");
+        }
+        return channel;
+    }
+
+    /**
+     * Forces appended records to disk.
+     */
+    synchronized void sync() throws IOException {
+        sync(System.currentTimeMillis());
+    }
+
+    private void sync(long now) throws IOException {
+        segment.force(false);
+        unsynced = 0;
+        lastSync = now;
+    }
+
+    /**
+     * Forces records appended at least {@code syncMillis} ago, which no later append has forced.
+     */
+    private synchronized void syncIdle() {
+        long now = System.currentTimeMillis();
+        if (unsynced > 0 && now - lastSync >= syncMillis && segment.isOpen()) {
+            try {
+                sync(now);
+            } catch (IOException e) {
+                log.error("Unable to sync " + folder, e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        syncer.shutdownNow();
+        if (segment.isOpen()) {
+            sync();
+            segment.close();
+        }
+    }
+
+    /**
+     * Lists segments ordered by sequence.
+     */
+    static List<Path> segments(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(EventLog::isSegment).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list " + folder, e);
+        }
+    }
+
+    static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SUFFIX) && name.length() == 20 + SUFFIX.length();
+    }
+
+    static long sequence(Path segment) {
+        return Long.parseLong(segment.getFileName().toString().substring(0, 20));
+    }
+
+    /**
+     * Reads complete records of a segment, up to a torn one if any.
+     */
+    static List<Record> read(Path segment) throws IOException {
+        return read(segment, 0);
+    }
+
+    /**
+     * Reads complete records of a segment starting at an offset, up to a torn or incomplete one if any.
+     *
+     * @param from offset of a record, {@link Record#getEnd()} of the one preceding it
+     */
+    static List<Record> read(Path segment, long from) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long end = from;
+            long size = channel.size();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel.position(from))
+            ));
+            Record record;
+            while ((record = read(in, end, size - end)) != null) {
+                records.add(record);
+                end = record.getEnd();
+            }
+        }
+        return records;
+    }
+
+    /**
+     * @param remaining number of bytes left in the segment, which a record length read from a torn one may exceed
+     */
+    private static Record read(DataInputStream in, long offset, long remaining) throws IOException {
+        if (remaining < HEADER) {
+            return null;
+        }
+        int length = in.readInt();
+        long seq = in.readLong();
+        int crc = in.readInt();
+        if (length < 0 || length > remaining - HEADER) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return crc(bytes) == crc ? new Record(seq, bytes, offset + HEADER + length) : null;
+    }
+
+    private static int crc(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    static class Record {
+        private final long seq;
+        private final byte[] bytes;
+        /**
+         * Offset following the record in its segment
+         */
+        private final long end;
+    }
+
+    /**
+     * Record just appended: its segment, sequence and the offset following it
+     */
+    @Getter
+    @AllArgsConstructor
+    static class Appended {
+        private final Path segment;
+        private final long seq;
+        private final long end;
+    }
+}
@@ -1,43 +1,119 @@
 package some.data.provider.filesystem;
 
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import some.data.event.AddFriendEvent;
 import some.data.event.GenericEvent;
-import some.data.event.RemoveFriendEvent;
 import some.data.provider.CustomDataSource;
 import some.dto.Friend;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
+import java.io.Closeable;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
-import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Keeps events in an append-only {@link EventLog} in {@code folder}, and friends built from them in a {@link FriendModel}.
+ * Events saved by earlier versions, a file each named by the time it was saved, are still read on reload,
+ * ahead of the log.
+ * <p>
+ * The sequence of the last event applied from the log is kept as a high-water mark, so that events written
+ * to the folder by another process, or synced from a peer, are applied incrementally and never twice, see
+ * {@link #watcher(String)}. A full {@link #reloadMemoryModel()} is only needed to repair the model.
+ */
 @Slf4j
-public class FileSystemDataSource implements CustomDataSource {
-    private List<Friend> friends = new ArrayList<>();
+public class FileSystemDataSource implements CustomDataSource, Closeable {
+    private static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int SYNC_EVERY = 64;
+    private static final long SYNC_MILLIS = 100;
+    /**
+     * Bytes of files a reload reads ahead of the one being applied, as a whole segment is held in memory while read
+     */
+    private static final long READ_AHEAD_BYTES = 2 * SEGMENT_SIZE;
+
+    private volatile FriendModel model = new FriendModel();
     private String folder;
     private Path path;
+    private EventLog eventLog;
+    /**
+     * Keeps events applied in the order they are appended
+     */
+    private final Object writeLock = new Object();
+    /**
+     * Duration of the last {@link #reloadMemoryModel()}
+     */
+    @Getter
+    private volatile long lastReloadMillis;
+    /**
+     * Number of events applied by the last {@link #reloadMemoryModel()}
+     */
+    @Getter
+    private volatile int lastReloadEvents;
+    /**
+     * Sequence of the last event applied from the log, along with its segment and the offset following it
+     * if they are known
+     */
+    private long highWater;
+    private Path highWaterSegment;
+    private long highWaterOffset;
+    /**
+     * Names of the files saved by earlier versions which have been applied, they carry no sequence
+     */
+    private final Set<String> appliedLegacy = new HashSet<>();
+    private WatchService watchService;
+    private final ExecutorService watching = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "data-source-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public FileSystemDataSource() {
         this(System.getProperty("folder.to.save", System.getProperty("java.io.tmpdir")));
     }
 
     public FileSystemDataSource(String folderToSave) {
+        this(folderToSave, SEGMENT_SIZE, SYNC_EVERY, SYNC_MILLIS);
+    }
+
+    /**
+     * @param segmentSize size in bytes after which the log rolls over to a new segment
+     * @param syncEvery number of events after which the log is forced to disk
+     * @param syncMillis time after which the log is forced to disk on the next save
+     */
+    public FileSystemDataSource(String folderToSave, long segmentSize, int syncEvery, long syncMillis) {
+        this(folderToSave, segmentSize, syncEvery, syncMillis, false);
+    }
+
+    private FileSystemDataSource(String folderToSave, long segmentSize, int syncEvery, long syncMillis, boolean readOnly) {
         this.folder = folderToSave;
         this.path = Paths.get(folder);
         if (!path.toFile().exists()) {
@@ -47,95 +123,313 @@ public class FileSystemDataSource implements CustomDataSource {
                 log.error(e.getLocalizedMessage(), e);
             }
         }
+        if (!readOnly) {
+            this.eventLog = new EventLog(path, segmentSize, syncEvery, syncMillis);
+        }
     }
 
+    /**
+     * Opens a read-only data source over a folder another process writes to, loading friends from the events
+     * found in it. Events written later are applied as they are reported, see {@link #startWatching(Duration)}.
+     * The log is never opened for writing, as that would cut off a record the writer is in the middle of.
+     */
+    public static FileSystemDataSource watcher(String folderToSave) {
+        FileSystemDataSource dataSource = new FileSystemDataSource(
+                folderToSave, SEGMENT_SIZE, SYNC_EVERY, SYNC_MILLIS, true
+        );
+        dataSource.reloadMemoryModel();
+        return dataSource;
+    }
 
     @Override
     public void saveEvent(GenericEvent event) {
-//        String evntName = fileName.format(new Date());
-        String evntName = Long.toString(new Date().getTime());
-        Path path = Paths.get(folder).resolve(evntName);
+        if (eventLog == null) {
+            throw new UnsupportedOperationException("Data source watching " + folder + " is read-only");
+        }
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-             FileOutputStream fos = new FileOutputStream(path.toFile())) {
-            ObjectOutputStream oos = new ObjectOutputStream(baos);
+             ObjectOutputStream oos = new ObjectOutputStream(baos)) {
             oos.writeObject(event);
             oos.flush();
-            oos.close();
-            InputStream is = new ByteArrayInputStream(baos.toByteArray());
-            IOUtils.copy(is, fos);
+            byte[] bytes = baos.toByteArray();
+            synchronized (writeLock) {
+                EventLog.Appended appended = eventLog.append(bytes);
+                highWater = appended.getSeq();
+                highWaterSegment = appended.getSegment();
+                highWaterOffset = appended.getEnd();
+                model.apply(event);
+            }
         } catch (IOException e) {
             log.error(e.getLocalizedMessage(), e);
         }
-        updateMemoryModel(path);
     }
 
+    /**
+     * Forces saved events to disk.
+     */
+    public void sync() throws IOException {
+        if (eventLog != null) {
+            eventLog.sync();
+        }
+    }
+
+    /**
+     * Applies events of a log segment following the high-water mark, or a single event saved by an earlier version
+     * unless it has been applied already. Other files are ignored.
+     */
     @Override
     public void updateMemoryModel(Path path) {
-        try (FileInputStream fis = new FileInputStream(path.toFile());
-             ObjectInputStream ois = new ObjectInputStream(fis)) {
-            GenericEvent genericEvent = (GenericEvent) ois.readObject();
-            if (genericEvent instanceof AddFriendEvent) {
-                friends.add(((AddFriendEvent) genericEvent).getFriend());
+        synchronized (writeLock) {
+            if (EventLog.isSegment(path)) {
+                applyNew(path);
+            } else if (isLegacy(path) && !appliedLegacy.contains(path.getFileName().toString())) {
+                // A file which can not be read yet is applied once it is, as it is reported again when modified
+                List<Sequenced> read = read(path);
+                if (!read.isEmpty()) {
+                    appliedLegacy.add(path.getFileName().toString());
+                    read.forEach(e -> model.apply(e.event));
+                }
             }
-            if (genericEvent instanceof RemoveFriendEvent) {
-                String idToRemove = ((RemoveFriendEvent) genericEvent).getFriendId();
-                Friend friendToRemove = null;
-                for (Friend f : friends) {
-                    if (f.getId().equals(idToRemove)) {
-                        friendToRemove = f;
+        }
+    }
+
+    /**
+     * Applies events of a segment following the high-water mark, none if an earlier segment is still missing.
+     *
+     * @return number of events applied
+     */
+    private int applyNew(Path segment) {
+        if (EventLog.sequence(segment) > highWater + 1) {
+            return 0;
+        }
+        int applied = 0;
+        try {
+            long from = segment.equals(highWaterSegment) ? highWaterOffset : 0;
+            for (EventLog.Record record : EventLog.read(segment, from)) {
+                if (record.getSeq() > highWater + 1) {
+                    break;
+                }
+                if (record.getSeq() == highWater + 1) {
+                    GenericEvent event = decode(record.getBytes());
+                    if (event != null) {
+                        model.apply(event);
                     }
+                    highWater = record.getSeq();
+                    applied++;
                 }
-                if (friendToRemove != null) {
-                    friends.remove(friendToRemove);
-                } else {
-                    log.error("Inconsistency - nothing to remove for " + idToRemove);
+                highWaterSegment = segment;
+                highWaterOffset = record.getEnd();
+            }
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage(), e);
+        }
+        return applied;
+    }
+
+    /**
+     * Applies events written to the log since the high-water mark.
+     *
+     * @return number of events applied
+     */
+    public int poll() {
+        synchronized (writeLock) {
+            List<Path> segments = EventLog.segments(path);
+            int applied = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                // Segments followed by one starting at or before the next sequence hold no new events
+                if (i + 1 == segments.size() || EventLog.sequence(segments.get(i + 1)) > highWater + 1) {
+                    applied += applyNew(segments.get(i));
                 }
             }
+            return applied;
+        }
+    }
+
+    /**
+     * Applies events as the file system reports changes in the folder, on a thread of its own: each file created
+     * or modified is passed to {@link #updateMemoryModel(Path)}. The log is polled for new events on start,
+     * whenever the file system drops notifications and if none have arrived for {@code period}.
+     */
+    public void startWatching(Duration period) {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to watch " + folder, e);
+        }
+        watching.submit(() -> {
+            boolean due = true;
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    if (due) {
+                        poll();
+                    }
+                    WatchKey key = watchService.poll(period.toMillis(), TimeUnit.MILLISECONDS);
+                    due = key == null;
+                    if (key != null) {
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                due = true;
+                            } else {
+                                updateMemoryModel(path.resolve((Path) event.context()));
+                            }
+                        }
+                        key.reset();
+                    }
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Watching " + folder + " failed", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads events of a file in order, decoding those of a segment in parallel, on the pool of the calling task
+     * if there is one. Events which can not be read are logged and left out, or null if read from a segment.
+     */
+    private static List<Sequenced> read(Path path) {
+        try {
+            if (EventLog.isSegment(path)) {
+                return EventLog.read(path).parallelStream().map(
+                        r -> new Sequenced(r.getSeq(), r.getEnd(), decode(r.getBytes()))
+                ).collect(Collectors.toList());
+            }
+            try (FileInputStream fis = new FileInputStream(path.toFile());
+                 ObjectInputStream ois = new ObjectInputStream(fis)) {
+                return Collections.singletonList(new Sequenced(0, 0, (GenericEvent) ois.readObject()));
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            log.error(e.getLocalizedMessage(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static GenericEvent decode(byte[] bytes) {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (GenericEvent) ois.readObject();
         } catch (IOException | ClassNotFoundException e) {
             log.error(e.getLocalizedMessage(), e);
+            return null;
         }
     }
 
+    /**
+     * Rebuilds friends from all files, ordered by the sequence encoded in their names. Files are read and decoded
+     * in parallel on a fork-join pool, at most {@code parallelism} of them and {@link #READ_AHEAD_BYTES} ahead
+     * of the one being applied, and applied in order. Readers are served the previous friends until the new ones
+     * replace them.
+     */
     @Override
     public void reloadMemoryModel() {
-        friends = new ArrayList<>();
-        Path path = Paths.get(folder);
-
-        File[] files = path.toFile().listFiles();
-        if (files != null) {
-            Arrays.sort(files, new Comparator<File>() {
-                @Override
-                public int compare(File o1, File o2) {
-                    try {
-                        BasicFileAttributes attr1 = Files.readAttributes(o1.toPath(), BasicFileAttributes.class);
-                        BasicFileAttributes attr2 = Files.readAttributes(o2.toPath(), BasicFileAttributes.class);
-                        return (int) (attr1.creationTime().toMillis() - attr2.creationTime().toMillis());
-                    } catch (IOException e) {
-                        log.error(e.getLocalizedMessage(), e);
+        long start = System.nanoTime();
+        int events = 0;
+        synchronized (writeLock) {
+            List<Path> files = new ArrayList<>(legacyFiles());
+            files.addAll(EventLog.segments(path));
+            FriendModel reloaded = new FriendModel();
+            highWater = 0;
+            highWaterSegment = null;
+            appliedLegacy.clear();
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                Deque<ForkJoinTask<List<Sequenced>>> pending = new ArrayDeque<>();
+                Deque<Path> reading = new ArrayDeque<>();
+                Deque<Long> sizes = new ArrayDeque<>();
+                long readingBytes = 0;
+                int next = 0;
+                while (next < files.size() || !pending.isEmpty()) {
+                    while (next < files.size() && pending.size() < parallelism) {
+                        Path file = files.get(next);
+                        long size = size(file);
+                        // A file is read regardless of its size when none is, so that a large one does not stall
+                        if (!pending.isEmpty() && readingBytes + size > READ_AHEAD_BYTES) {
+                            break;
+                        }
+                        next++;
+                        pending.add(pool.submit(() -> read(file)));
+                        reading.add(file);
+                        sizes.add(size);
+                        readingBytes += size;
+                    }
+                    Path file = reading.poll();
+                    readingBytes -= sizes.poll();
+                    for (Sequenced sequenced : pending.poll().join()) {
+                        if (sequenced.event != null) {
+                            reloaded.apply(sequenced.event);
+                            events++;
+                        }
+                        if (sequenced.seq > 0) {
+                            highWater = sequenced.seq;
+                            highWaterSegment = file;
+                            highWaterOffset = sequenced.end;
+                        } else {
+                            appliedLegacy.add(file.getFileName().toString());
+                        }
                     }
-                    return 0;
-                }
-            });
-            for (final File fileEntry : files) {
-                if (Files.isRegularFile(fileEntry.toPath())) {
-                    updateMemoryModel(fileEntry.toPath());
                 }
+            } finally {
+                pool.shutdown();
             }
+            model = reloaded;
         }
-// no java 8 for now
-//        try (Stream<Path> paths = Files.walk(path)) {
-//            paths.forEach(filePath -> {
-//                if (Files.isRegularFile(filePath)) {
-//                    updateMemoryModel(filePath);
-//                }
-//            });
-//        } catch (IOException e) {
-//            log.error(e.getLocalizedMessage(), e);
-//        }
+        lastReloadMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        lastReloadEvents = events;
+        log.info("Reloaded " + events + " events in " + lastReloadMillis + " ms");
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            // Reading it reports the failure
+            return 0;
+        }
+    }
+
+    /**
+     * Lists events saved by earlier versions ordered by the time they were saved.
+     */
+    private List<Path> legacyFiles() {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(f -> isLegacy(f) && Files.isRegularFile(f)).sorted(
+                    Comparator.comparing(f -> Long.parseLong(f.getFileName().toString()))
+            ).collect(Collectors.toList());
+        } catch (IOException e) {
+            log.error(e.getLocalizedMessage(), e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static boolean isLegacy(Path file) {
+        return file.getFileName().toString().matches("\\d+");
     }
 
     @Override
     public List<Friend> getAllFriends() {
-        return friends;
+        return model.snapshot();
+    }
+
+    @Override
+    public void close() throws IOException {
+        watching.shutdownNow();
+        if (watchService != null) {
+            watchService.close();
+        }
+        if (eventLog != null) {
+            eventLog.close();
+        }
+    }
+
+    /**
+     * Event read along with its sequence and the offset following it in its segment, both 0 for events saved
+     * by earlier versions
+     */
+    @AllArgsConstructor
+    private static class Sequenced {
+        private final long seq;
+        private final long end;
+        private final GenericEvent event;
     }
 }
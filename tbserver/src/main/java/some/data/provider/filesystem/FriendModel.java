@@ -0,0 +1,59 @@
+package some.data.provider.filesystem;
+
+import lombok.extern.slf4j.Slf4j;
+import some.data.event.AddFriendEvent;
+import some.data.event.GenericEvent;
+import some.data.event.RemoveFriendEvent;
+import some.dto.Friend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Friends built from events, keyed by id and kept in the order they were added. Events are applied in constant
+ * time, readers get an immutable snapshot, copied from the friends in order on the first read after a change
+ * and swapped atomically, so reads between changes neither copy nor block.
+ * A friend added again under the same id replaces the earlier one and moves to the end.
+ */
+@Slf4j
+class FriendModel {
+    /**
+     * Guarded by this model
+     */
+    private final Map<String, Friend> friends = new LinkedHashMap<>();
+    private volatile boolean changed;
+    private volatile List<Friend> snapshot = Collections.emptyList();
+
+    synchronized void apply(GenericEvent genericEvent) {
+        if (genericEvent instanceof AddFriendEvent) {
+            Friend friend = ((AddFriendEvent) genericEvent).getFriend();
+            friends.remove(friend.getId());
+            friends.put(friend.getId(), friend);
+            changed = true;
+        }
+        if (genericEvent instanceof RemoveFriendEvent) {
+            String idToRemove = ((RemoveFriendEvent) genericEvent).getFriendId();
+            if (friends.remove(idToRemove) != null) {
+                changed = true;
+            } else {
+                log.error("Inconsistency - nothing to remove for " + idToRemove);
+            }
+        }
+    }
+
+    List<Friend> snapshot() {
+        if (!changed) {
+            return snapshot;
+        }
+        synchronized (this) {
+            if (changed) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(friends.values()));
+                changed = false;
+            }
+            return snapshot;
+        }
+    }
+}
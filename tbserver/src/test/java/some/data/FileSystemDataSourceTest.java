@@ -11,8 +11,22 @@ import some.data.provider.filesystem.FileSystemDataSource;
 import some.dto.Friend;
 
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class FileSystemDataSourceTest {
     private String s = System.getProperty("java.io.tmpdir");
@@ -63,4 +77,241 @@ public class FileSystemDataSourceTest {
 
         Assert.assertEquals(startnum, endnum);
     }
+
+    @Test
+    public void testEventsSavedWithinMillisecondAreKept() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString())) {
+            for (int i = 0; i < 200; i++) {
+                writer.saveEvent(new AddFriendEvent(new Friend("friendid" + i)));
+            }
+        }
+        try (FileSystemDataSource reader = new FileSystemDataSource(path.toString())) {
+            reader.reloadMemoryModel();
+            Assert.assertEquals(200, reader.getAllFriends().size());
+            Assert.assertEquals("friendid199", reader.getAllFriends().get(199).getId());
+        }
+    }
+
+    @Test
+    public void testRollover() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString(), 1024, 8, 1000)) {
+            for (int i = 0; i < 20; i++) {
+                writer.saveEvent(new AddFriendEvent(new Friend("friendid" + i)));
+            }
+            writer.saveEvent(new RemoveFriendEvent("friendid3"));
+        }
+        Assert.assertTrue(segments().size() > 1);
+        try (FileSystemDataSource reader = new FileSystemDataSource(path.toString(), 1024, 8, 1000)) {
+            reader.reloadMemoryModel();
+            Assert.assertEquals(19, reader.getAllFriends().size());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString())) {
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid2")));
+        }
+        List<Path> segments = segments();
+        Files.write(segments.get(segments.size() - 1), new byte[]{0, 0, 1, 0, 0, 0}, StandardOpenOption.APPEND);
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString())) {
+            writer.reloadMemoryModel();
+            Assert.assertEquals(2, writer.getAllFriends().size());
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid3")));
+        }
+        try (FileSystemDataSource reader = new FileSystemDataSource(path.toString())) {
+            reader.reloadMemoryModel();
+            Assert.assertEquals(3, reader.getAllFriends().size());
+        }
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() throws IOException {
+        try (FileSystemDataSource dataSource = new FileSystemDataSource(path.toString())) {
+            dataSource.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+            List<Friend> snapshot = dataSource.getAllFriends();
+            dataSource.saveEvent(new AddFriendEvent(new Friend("friendid2")));
+            dataSource.saveEvent(new RemoveFriendEvent("friendid1"));
+            Assert.assertEquals(1, snapshot.size());
+            Assert.assertEquals("friendid2", dataSource.getAllFriends().get(0).getId());
+            try {
+                snapshot.clear();
+                Assert.fail();
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReadersAndWriters() throws Exception {
+        try (FileSystemDataSource dataSource = new FileSystemDataSource(path.toString())) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                int writer = w;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        dataSource.saveEvent(new AddFriendEvent(new Friend(writer + "-" + i)));
+                        if (i % 2 == 0) {
+                            dataSource.saveEvent(new RemoveFriendEvent(writer + "-" + i));
+                        }
+                    }
+                }));
+            }
+            for (int r = 0; r < 2; r++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 1000; i++) {
+                        for (Friend friend : dataSource.getAllFriends()) {
+                            Assert.assertNotNull(friend.getId());
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            Assert.assertEquals(500, dataSource.getAllFriends().size());
+            dataSource.reloadMemoryModel();
+            Assert.assertEquals(500, dataSource.getAllFriends().size());
+        }
+    }
+
+    @Test
+    public void testParallelReloadAppliesEventsInOrder() throws IOException {
+        List<String> expected;
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString(), 2048, 64, 1000)) {
+            for (int i = 0; i < 300; i++) {
+                String id = "friendid" + (i % 50);
+                writer.saveEvent(new AddFriendEvent(new Friend(id)));
+                if (i % 3 == 0) {
+                    writer.saveEvent(new RemoveFriendEvent(id));
+                }
+            }
+            expected = ids(writer.getAllFriends());
+        }
+        Assert.assertTrue(segments().size() > 10);
+        try (FileSystemDataSource reader = new FileSystemDataSource(path.toString(), 2048, 64, 1000)) {
+            reader.reloadMemoryModel();
+            Assert.assertEquals(expected, ids(reader.getAllFriends()));
+            Assert.assertEquals(400, reader.getLastReloadEvents());
+            Assert.assertTrue(reader.getLastReloadMillis() >= 0);
+        }
+    }
+
+    @Test
+    public void testWatcherAppliesNewEventsOnce() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString(), 1024, 8, 1000)) {
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid2")));
+            try (FileSystemDataSource watcher = FileSystemDataSource.watcher(path.toString())) {
+                Assert.assertEquals(2, watcher.getAllFriends().size());
+                for (int i = 3; i < 20; i++) {
+                    writer.saveEvent(new AddFriendEvent(new Friend("friendid" + i)));
+                }
+                writer.saveEvent(new RemoveFriendEvent("friendid1"));
+                Assert.assertEquals(18, watcher.poll());
+                Assert.assertEquals(ids(writer.getAllFriends()), ids(watcher.getAllFriends()));
+                Assert.assertEquals(0, watcher.poll());
+                for (Path segment : segments()) {
+                    watcher.updateMemoryModel(segment);
+                }
+                Assert.assertEquals(ids(writer.getAllFriends()), ids(watcher.getAllFriends()));
+            }
+        }
+    }
+
+    @Test
+    public void testWatcherFollowsOnItsOwnThread() throws Exception {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString());
+             FileSystemDataSource watcher = FileSystemDataSource.watcher(path.toString())) {
+            watcher.startWatching(Duration.ofSeconds(5));
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+            for (int i = 0; i < 100 && watcher.getAllFriends().isEmpty(); i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(1, watcher.getAllFriends().size());
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testWatcherIsReadOnly() throws IOException {
+        try (FileSystemDataSource watcher = FileSystemDataSource.watcher(path.toString())) {
+            watcher.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+        }
+    }
+
+    @Test
+    public void testWriterSkipsEventsItHasSaved() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString(), 1024, 8, 1000)) {
+            for (int i = 0; i < 20; i++) {
+                writer.saveEvent(new AddFriendEvent(new Friend("friendid" + i)));
+            }
+            Assert.assertEquals(0, writer.poll());
+            for (Path segment : segments()) {
+                writer.updateMemoryModel(segment);
+            }
+            Assert.assertEquals(20, writer.getAllFriends().size());
+        }
+    }
+
+    @Test
+    public void testLegacyFileIsAppliedOnce() throws IOException {
+        Files.createDirectories(path);
+        Path legacy = path.resolve("1500000000000");
+        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(legacy))) {
+            oos.writeObject(new AddFriendEvent(new Friend("friendid1")));
+        }
+        try (FileSystemDataSource dataSource = new FileSystemDataSource(path.toString())) {
+            dataSource.updateMemoryModel(legacy);
+            dataSource.updateMemoryModel(legacy);
+            Assert.assertEquals(1, dataSource.getAllFriends().size());
+            dataSource.reloadMemoryModel();
+            dataSource.updateMemoryModel(legacy);
+            Assert.assertEquals(1, dataSource.getAllFriends().size());
+        }
+    }
+
+    @Test
+    public void testWatcherAppliesLegacyFileDroppedIntoFolder() throws Exception {
+        Files.createDirectories(path);
+        try (FileSystemDataSource watcher = FileSystemDataSource.watcher(path.toString())) {
+            watcher.startWatching(Duration.ofMinutes(1));
+            Path synced = path.resolve("sync.tmp");
+            try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(synced))) {
+                oos.writeObject(new AddFriendEvent(new Friend("friendid1")));
+            }
+            Files.move(synced, path.resolve("1500000000000"), StandardCopyOption.ATOMIC_MOVE);
+            for (int i = 0; i < 100 && watcher.getAllFriends().isEmpty(); i++) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(Collections.singletonList("friendid1"), ids(watcher.getAllFriends()));
+        }
+    }
+
+    @Test
+    public void testRolloverReusesEmptySegmentLeftBehind() throws IOException {
+        try (FileSystemDataSource writer = new FileSystemDataSource(path.toString(), 1, 8, 1000)) {
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid1")));
+            Files.createFile(path.resolve(String.format("%020d.log", 2)));
+            writer.saveEvent(new AddFriendEvent(new Friend("friendid2")));
+        }
+        Assert.assertEquals(2, segments().size());
+        try (FileSystemDataSource reopened = new FileSystemDataSource(path.toString())) {
+            reopened.reloadMemoryModel();
+            Assert.assertEquals(Arrays.asList("friendid1", "friendid2"), ids(reopened.getAllFriends()));
+        }
+    }
+
+    private static List<String> ids(List<Friend> friends) {
+        return friends.stream().map(Friend::getId).collect(Collectors.toList());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(f -> f.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+        }
+    }
 }